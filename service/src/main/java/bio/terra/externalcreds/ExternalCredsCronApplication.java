@@ -1,7 +1,10 @@
 package bio.terra.externalcreds;
 
 import bio.terra.common.logging.LoggingInitializer;
+import bio.terra.externalcreds.services.AccessTokenCacheService;
+import bio.terra.externalcreds.services.FenceProviderService;
 import bio.terra.externalcreds.services.PassportProviderService;
+import bio.terra.externalcreds.services.TokenProviderService;
 import java.util.Map;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.SpringBootConfiguration;
@@ -33,9 +36,19 @@ public class ExternalCredsCronApplication {
   }
 
   private final PassportProviderService passportProviderService;
+  private final TokenProviderService tokenProviderService;
+  private final AccessTokenCacheService accessTokenCacheService;
+  private final FenceProviderService fenceProviderService;
 
-  public ExternalCredsCronApplication(PassportProviderService passportProviderService) {
+  public ExternalCredsCronApplication(
+      PassportProviderService passportProviderService,
+      TokenProviderService tokenProviderService,
+      AccessTokenCacheService accessTokenCacheService,
+      FenceProviderService fenceProviderService) {
     this.passportProviderService = passportProviderService;
+    this.tokenProviderService = tokenProviderService;
+    this.accessTokenCacheService = accessTokenCacheService;
+    this.fenceProviderService = fenceProviderService;
   }
 
   @Scheduled(fixedRateString = "#{${externalcreds.background-job-interval-mins} * 60 * 1000}")
@@ -51,5 +64,26 @@ public class ExternalCredsCronApplication {
     log.info("beginning validateVisas");
     var checkedPassportCount = passportProviderService.validateAccessTokenVisas();
     log.info("completed validateVisas", Map.of("checked_passport_count", checkedPassportCount));
+
+    // refresh recently read access tokens before they expire
+    log.info("beginning refreshExpiringAccessTokens");
+    var refreshedAccessTokenCount = tokenProviderService.refreshExpiringAccessTokens();
+    log.info(
+        "completed refreshExpiringAccessTokens",
+        Map.of("refreshed_access_token_count", refreshedAccessTokenCount));
+
+    // remove cached access tokens that have expired
+    log.info("beginning deleteExpiredAccessTokens");
+    var deletedAccessTokenCount = accessTokenCacheService.deleteExpiredAccessTokens();
+    log.info(
+        "completed deleteExpiredAccessTokens",
+        Map.of("deleted_access_token_count", deletedAccessTokenCount));
+
+    // create missing fence account keys and replace ones that expire soon
+    log.info("beginning rotateExpiringFenceAccountKeys");
+    var rotatedFenceAccountKeyCount = fenceProviderService.rotateExpiringFenceAccountKeys();
+    log.info(
+        "completed rotateExpiringFenceAccountKeys",
+        Map.of("rotated_fence_account_key_count", rotatedFenceAccountKeyCount));
   }
 }
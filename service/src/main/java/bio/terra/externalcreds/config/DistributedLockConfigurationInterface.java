@@ -7,4 +7,15 @@ import org.immutables.value.Value;
 @PropertiesInterfaceStyle
 public interface DistributedLockConfigurationInterface {
   Duration getLockTimeout();
+
+  /**
+   * Maximum number of locks with the same name, e.g. createFenceKey-fence, held or waited on at
+   * once by this instance. Each one holds a database connection for as long as it is held or waited
+   * on, so this must stay below the connection pool size. Locks with different names are bounded
+   * separately.
+   */
+  @Value.Default
+  default int getMaxConcurrentLocksPerName() {
+    return 4;
+  }
 }
@@ -53,12 +53,112 @@ public interface ExternalCredsConfigInterface {
     return List.of();
   }
 
+  @Value.Default
+  default JwksCacheConfiguration getJwksCache() {
+    return JwksCacheConfiguration.create();
+  }
+
   /** List of URIs that are allowable in iss claims of JWTs */
   @Value.Default
   default Collection<URI> getAllowedJwtIssuers() {
     return List.of();
   }
 
+  /** Maximum number of visas in a single passport whose signatures are verified concurrently */
+  @Value.Default
+  default int getVisaVerificationParallelism() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Maximum number of linked accounts whose passports are refreshed concurrently. With reactive
+   * passport refresh, the maximum number of refreshes making database calls at once, so it must
+   * stay below the connection pool size.
+   */
+  @Value.Default
+  default int getPassportRefreshParallelism() {
+    return 4;
+  }
+
+  /**
+   * Whether expiring passports are refreshed with non-blocking provider requests, bounded by
+   * getPassportRefreshConcurrency() instead of getPassportRefreshParallelism() threads
+   */
+  @Value.Default
+  default boolean getReactivePassportRefreshEnabled() {
+    return true;
+  }
+
+  /**
+   * Maximum number of in flight passport refreshes when reactive passport refresh is enabled. It
+   * should not exceed getOauth2HttpClient().getMaxConnections(): refreshes beyond the connection
+   * pool wait for a connection and fail once its pending acquire timeout passes.
+   */
+  @Value.Default
+  default int getPassportRefreshConcurrency() {
+    return 50;
+  }
+
+  /** Maximum number of in flight visa validation requests to providers */
+  @Value.Default
+  default int getVisaValidationConcurrency() {
+    return 16;
+  }
+
+  /**
+   * Base64 encoded AES key used to encrypt cached access tokens. Without one, access tokens are
+   * cached as plain text.
+   */
+  Optional<String> getAccessTokenCacheEncryptionKey();
+
+  /**
+   * Cached access tokens expiring within this long of the access token expiration buffer are
+   * refreshed by the background job, if they were read recently
+   */
+  @Value.Default
+  default Duration getAccessTokenPreRefreshWindow() {
+    return Duration.ofMinutes(15);
+  }
+
+  /** Cached access tokens read within this long are refreshed before they expire */
+  @Value.Default
+  default Duration getAccessTokenPreRefreshReadWindow() {
+    return Duration.ofHours(1);
+  }
+
+  /**
+   * Maximum number of access tokens refreshed ahead of expiration per background job run, 0 turns
+   * pre-refresh off
+   */
+  @Value.Default
+  default int getAccessTokenPreRefreshMaxPerRun() {
+    return 1000;
+  }
+
+  /** Fence account keys expiring within this long are replaced by the background job */
+  @Value.Default
+  default Duration getFenceAccountKeyRotationWindow() {
+    return Duration.ofDays(3);
+  }
+
+  /** Maximum number of fence account keys created concurrently by the background job */
+  @Value.Default
+  default int getFenceAccountKeyRotationParallelism() {
+    return 4;
+  }
+
+  /** Maximum number of fence account keys created per background job run, 0 turns rotation off */
+  @Value.Default
+  default int getFenceAccountKeyRotationMaxPerRun() {
+    return 500;
+  }
+
+  /** Connection pool and timeout settings for token and user info requests to providers */
+  @Value.Default
+  default ProviderHttpClientConfiguration getOauth2HttpClient() {
+    return ProviderHttpClientConfiguration.create();
+  }
+
   boolean getAuthorizationChangeEventsEnabled();
 
   Optional<String> getAuthorizationChangeEventTopicName();
@@ -68,6 +168,15 @@ public interface ExternalCredsConfigInterface {
     return DistributedLockConfiguration.create().setLockTimeout(Duration.ofSeconds(30));
   }
 
+  /**
+   * Whether refresh token exchanges are coordinated across instances using the distributed_lock
+   * table, in addition to within each instance
+   */
+  @Value.Default
+  default boolean getDistributedAccessTokenRefreshEnabled() {
+    return false;
+  }
+
   Collection<String> getAuthorizedAdmins();
 
   boolean getEraCommonsLinkingEnabled();
@@ -0,0 +1,31 @@
+package bio.terra.externalcreds.config;
+
+import java.time.Duration;
+import org.immutables.value.Value;
+
+/** Refresh and timeout settings for the key sets used to verify jwt signatures */
+@Value.Modifiable
+@PropertiesInterfaceStyle
+public interface JwksCacheConfigurationInterface {
+  /** Key sets are reloaded in the background once they are this old */
+  @Value.Default
+  default Duration getRefreshInterval() {
+    return Duration.ofHours(1);
+  }
+
+  /** Minimum time between reloads of a key set triggered by a jwt with an unknown key id */
+  @Value.Default
+  default Duration getMinRefreshInterval() {
+    return Duration.ofSeconds(30);
+  }
+
+  @Value.Default
+  default Duration getConnectTimeout() {
+    return Duration.ofSeconds(5);
+  }
+
+  @Value.Default
+  default Duration getReadTimeout() {
+    return Duration.ofSeconds(5);
+  }
+}
@@ -0,0 +1,43 @@
+package bio.terra.externalcreds.config;
+
+import java.time.Duration;
+import org.immutables.value.Value;
+
+/** Connection pool and timeout settings for the http client used to call a provider */
+@Value.Modifiable
+@PropertiesInterfaceStyle
+public interface ProviderHttpClientConfigurationInterface {
+  /** Maximum number of open connections to the provider */
+  @Value.Default
+  default int getMaxConnections() {
+    return 50;
+  }
+
+  /** How long a request waits for a pooled connection when all are in use */
+  @Value.Default
+  default Duration getPendingAcquireTimeout() {
+    return Duration.ofSeconds(10);
+  }
+
+  @Value.Default
+  default Duration getConnectTimeout() {
+    return Duration.ofSeconds(5);
+  }
+
+  @Value.Default
+  default Duration getResponseTimeout() {
+    return Duration.ofSeconds(30);
+  }
+
+  /** Idle connections are closed after this long, it should be below the provider's own limit */
+  @Value.Default
+  default Duration getMaxIdleTime() {
+    return Duration.ofSeconds(30);
+  }
+
+  /** Connections are replaced after this long so dns changes are eventually picked up */
+  @Value.Default
+  default Duration getMaxLifeTime() {
+    return Duration.ofMinutes(5);
+  }
+}
@@ -42,4 +42,12 @@ public interface ProviderPropertiesInterface {
   Optional<String> getJwksUri();
 
   Optional<String> getValidationEndpoint();
+
+  // optional limit on the rate of background passport refreshes against this provider
+  Optional<Double> getMaxRefreshesPerSecond();
+
+  @Value.Default
+  default ProviderHttpClientConfiguration getHttpClient() {
+    return ProviderHttpClientConfiguration.create();
+  }
 }
@@ -7,7 +7,6 @@ import bio.terra.externalcreds.generated.api.FenceAccountKeyApi;
 import bio.terra.externalcreds.generated.model.Provider;
 import bio.terra.externalcreds.models.FenceAccountKey;
 import bio.terra.externalcreds.services.FenceProviderService;
-import bio.terra.externalcreds.services.LinkedAccountService;
 import jakarta.servlet.http.HttpServletRequest;
 import java.time.Instant;
 import java.util.Optional;
@@ -18,7 +17,6 @@ import org.springframework.stereotype.Controller;
 public record FenceAccountKeyController(
     AuditLogger auditLogger,
     ExternalCredsSamUserFactory samUserFactory,
-    LinkedAccountService linkedAccountService,
     FenceProviderService fenceProviderService,
     HttpServletRequest request)
     implements FenceAccountKeyApi {
@@ -30,17 +28,18 @@ public record FenceAccountKeyController(
         new AuditLogEvent.Builder()
             .auditLogEventType(AuditLogEventType.GetServiceAccountKey)
             .clientIP(request.getRemoteAddr());
-    var maybeLinkedAccount =
-        linkedAccountService.getLinkedAccount(samUser.getSubjectId(), provider);
     Optional<FenceAccountKey> maybeFenceAccountKey =
-        maybeLinkedAccount.flatMap(
-            linkedAccount -> {
-              auditLogEventBuilder
-                  .provider(linkedAccount.getProvider())
-                  .userId(linkedAccount.getUserId())
-                  .externalUserId(linkedAccount.getExternalUserId());
-              return fenceProviderService.getFenceAccountKey(linkedAccount);
-            });
+        fenceProviderService
+            .getLinkedAccountWithFenceAccountKey(samUser.getSubjectId(), provider)
+            .map(
+                linkedAccountWithFenceAccountKey -> {
+                  var linkedAccount = linkedAccountWithFenceAccountKey.getLinkedAccount();
+                  auditLogEventBuilder
+                      .provider(linkedAccount.getProvider())
+                      .userId(linkedAccount.getUserId())
+                      .externalUserId(linkedAccount.getExternalUserId());
+                  return linkedAccountWithFenceAccountKey.getFenceAccountKey();
+                });
     var response =
         maybeFenceAccountKey.flatMap(
             fenceAccountKey -> {
@@ -7,8 +7,10 @@ import bio.terra.externalcreds.generated.model.LinkInfo;
 import bio.terra.externalcreds.generated.model.OneOfValidatePassportRequestCriteriaItems;
 import bio.terra.externalcreds.generated.model.OneOfValidatePassportResultMatchedCriterion;
 import bio.terra.externalcreds.generated.model.RASv1Dot1VisaCriterion;
+import bio.terra.externalcreds.generated.model.ValidatePassportRequest;
 import bio.terra.externalcreds.generated.model.ValidatePassportResult;
 import bio.terra.externalcreds.models.LinkedAccount;
+import bio.terra.externalcreds.models.ValidatePassportRequestInternal;
 import bio.terra.externalcreds.models.ValidatePassportResultInternal;
 import bio.terra.externalcreds.visaComparators.RASv1Dot1VisaCriterionInternal;
 import bio.terra.externalcreds.visaComparators.VisaCriterionInternal;
@@ -40,6 +42,13 @@ public class OpenApiConverters {
               })
           .collect(Collectors.toList());
     }
+
+    public static ValidatePassportRequestInternal convert(ValidatePassportRequest request) {
+      return new ValidatePassportRequestInternal.Builder()
+          .passports(request.getPassports())
+          .criteria(convert(request.getCriteria()))
+          .build();
+    }
   }
 
   /** Converts internal ECM models to openapi outputs */
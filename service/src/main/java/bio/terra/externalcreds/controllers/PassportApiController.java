@@ -1,6 +1,9 @@
 package bio.terra.externalcreds.controllers;
 
+import bio.terra.common.exception.BadRequestException;
 import bio.terra.externalcreds.generated.api.PassportApi;
+import bio.terra.externalcreds.generated.model.ValidatePassportBatchRequest;
+import bio.terra.externalcreds.generated.model.ValidatePassportBatchResult;
 import bio.terra.externalcreds.generated.model.ValidatePassportRequest;
 import bio.terra.externalcreds.generated.model.ValidatePassportResult;
 import bio.terra.externalcreds.services.PassportService;
@@ -9,6 +12,8 @@ import org.springframework.stereotype.Controller;
 
 @Controller
 public record PassportApiController(PassportService passportService) implements PassportApi {
+  // maxItems of ValidatePassportBatchRequest.requests in openapi.yml
+  static final int MAX_BATCH_SIZE = 100;
 
   @Override
   public ResponseEntity<ValidatePassportResult> validatePassport(ValidatePassportRequest body) {
@@ -17,4 +22,19 @@ public record PassportApiController(PassportService passportService) implements
             body.getPassports(), OpenApiConverters.Input.convert(body.getCriteria()));
     return ResponseEntity.ok(OpenApiConverters.Output.convert(result));
   }
+
+  @Override
+  public ResponseEntity<ValidatePassportBatchResult> validatePassportBatch(
+      ValidatePassportBatchRequest body) {
+    if (body.getRequests().size() > MAX_BATCH_SIZE) {
+      throw new BadRequestException(
+          String.format("At most %d requests can be validated in a batch", MAX_BATCH_SIZE));
+    }
+    var results =
+        passportService.validatePassports(
+            body.getRequests().stream().map(OpenApiConverters.Input::convert).toList());
+    return ResponseEntity.ok(
+        new ValidatePassportBatchResult()
+            .results(results.stream().map(OpenApiConverters.Output::convert).toList()));
+  }
 }
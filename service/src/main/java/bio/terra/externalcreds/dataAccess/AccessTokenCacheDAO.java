@@ -3,11 +3,13 @@ package bio.terra.externalcreds.dataAccess;
 import bio.terra.externalcreds.models.AccessTokenCacheEntry;
 import bio.terra.externalcreds.models.LinkedAccount;
 import io.opentelemetry.instrumentation.annotations.WithSpan;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.*;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.support.DataAccessUtils;
-import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
@@ -17,18 +19,30 @@ import org.springframework.stereotype.Repository;
 @Slf4j
 public class AccessTokenCacheDAO {
 
-  private static final RowMapper<AccessTokenCacheEntry> ACCESS_TOKEN_CACHE_ROW_MAPPER =
-      ((rs, rowNum) ->
-          new AccessTokenCacheEntry.Builder()
-              .linkedAccountId(rs.getInt("linked_account_id"))
-              .accessToken(rs.getString("access_token"))
-              .expiresAt(rs.getTimestamp("expires_at").toInstant())
-              .build());
-
   final NamedParameterJdbcTemplate jdbcTemplate;
+  private final AccessTokenEncryptor accessTokenEncryptor;
 
-  public AccessTokenCacheDAO(NamedParameterJdbcTemplate jdbcTemplate) {
+  public AccessTokenCacheDAO(
+      NamedParameterJdbcTemplate jdbcTemplate, AccessTokenEncryptor accessTokenEncryptor) {
     this.jdbcTemplate = jdbcTemplate;
+    this.accessTokenEncryptor = accessTokenEncryptor;
+  }
+
+  // entries whose access token cannot be decrypted are mapped to empty and treated as not cached
+  private Optional<AccessTokenCacheEntry> mapAccessTokenCacheEntry(ResultSet rs, int rowNum)
+      throws SQLException {
+    var linkedAccountId = rs.getInt("linked_account_id");
+    var expiresAt = rs.getTimestamp("expires_at").toInstant();
+    return accessTokenEncryptor
+        .getAccessToken(
+            linkedAccountId, rs.getString("access_token"), rs.getBytes("encrypted_access_token"))
+        .map(
+            accessToken ->
+                new AccessTokenCacheEntry.Builder()
+                    .linkedAccountId(linkedAccountId)
+                    .accessToken(accessToken)
+                    .expiresAt(expiresAt)
+                    .build());
   }
 
   @WithSpan
@@ -40,12 +54,14 @@ public class AccessTokenCacheDAO {
               var namedParameters =
                   new MapSqlParameterSource().addValue("linkedAccountId", linkedAccountId);
               var query =
-                  "SELECT token.linked_account_id, token.access_token, token.expires_at "
+                  "SELECT token.linked_account_id, token.access_token,"
+                      + " token.encrypted_access_token, token.expires_at"
                       + "  FROM access_token_cache token"
                       + "  WHERE token.linked_account_id = :linkedAccountId";
-              return Optional.ofNullable(
-                  DataAccessUtils.singleResult(
-                      jdbcTemplate.query(query, namedParameters, ACCESS_TOKEN_CACHE_ROW_MAPPER)));
+              var accessTokenCacheEntries =
+                  jdbcTemplate.query(query, namedParameters, this::mapAccessTokenCacheEntry);
+              return Optional.ofNullable(DataAccessUtils.singleResult(accessTokenCacheEntries))
+                  .flatMap(entry -> entry);
             });
   }
 
@@ -53,17 +69,29 @@ public class AccessTokenCacheDAO {
   public AccessTokenCacheEntry upsertAccessTokenCacheEntry(
       AccessTokenCacheEntry accessTokenCacheEntry) {
     var query =
-        "INSERT INTO access_token_cache (linked_account_id, access_token, expires_at)"
-            + " VALUES (:linkedAccountId, :accessToken, :expiresAt)"
+        "INSERT INTO access_token_cache"
+            + " (linked_account_id, access_token, encrypted_access_token, expires_at)"
+            + " VALUES (:linkedAccountId, :accessToken, :encryptedAccessToken, :expiresAt)"
             + " ON CONFLICT (linked_account_id) DO UPDATE SET"
             + " linked_account_id = excluded.linked_account_id,"
             + " access_token = excluded.access_token,"
+            + " encrypted_access_token = excluded.encrypted_access_token,"
             + " expires_at = excluded.expires_at";
 
+    // only one of access_token and encrypted_access_token is set
+    var encrypt = accessTokenEncryptor.isEnabled();
     var namedParameters =
         new MapSqlParameterSource()
             .addValue("linkedAccountId", accessTokenCacheEntry.getLinkedAccountId())
-            .addValue("accessToken", accessTokenCacheEntry.getAccessToken())
+            .addValue("accessToken", encrypt ? null : accessTokenCacheEntry.getAccessToken())
+            .addValue(
+                "encryptedAccessToken",
+                encrypt
+                    ? accessTokenEncryptor.encrypt(
+                        accessTokenCacheEntry.getLinkedAccountId(),
+                        accessTokenCacheEntry.getAccessToken())
+                    : null,
+                Types.BINARY)
             .addValue("expiresAt", Timestamp.from(accessTokenCacheEntry.getExpiresAt()));
 
     // generatedKeyHolder will hold the id returned by the query as specified by the RETURNING
@@ -80,6 +108,41 @@ public class AccessTokenCacheDAO {
     }
   }
 
+  /**
+   * @param linkedAccountIds ids of the linked accounts whose access tokens were read
+   * @param lastReadAt when the access tokens were read
+   * @return int number of access token cache entries updated
+   */
+  @WithSpan
+  public int updateLastReadAt(Collection<Integer> linkedAccountIds, Timestamp lastReadAt) {
+    if (linkedAccountIds.isEmpty()) {
+      return 0;
+    }
+    var namedParameters =
+        new MapSqlParameterSource("linkedAccountIds", linkedAccountIds.toArray(Integer[]::new))
+            .addValue("lastReadAt", lastReadAt);
+    var query =
+        "UPDATE access_token_cache SET last_read_at = :lastReadAt"
+            + " WHERE linked_account_id = ANY(:linkedAccountIds)";
+    return jdbcTemplate.update(query, namedParameters);
+  }
+
+  /**
+   * Deletes up to limit access token cache entries that expired before expiredBefore.
+   *
+   * @return int number of access token cache entries deleted
+   */
+  @WithSpan
+  public int deleteExpiredAccessTokenCacheEntries(Timestamp expiredBefore, int limit) {
+    var namedParameters =
+        new MapSqlParameterSource("expiredBefore", expiredBefore).addValue("limit", limit);
+    var query =
+        "DELETE FROM access_token_cache WHERE linked_account_id IN"
+            + " (SELECT linked_account_id FROM access_token_cache"
+            + " WHERE expires_at < :expiredBefore LIMIT :limit)";
+    return jdbcTemplate.update(query, namedParameters);
+  }
+
   /**
    * @param linkedAccountId id of the linked account
    * @return boolean whether a access token cache entry was deleted
@@ -0,0 +1,139 @@
+package bio.terra.externalcreds.dataAccess;
+
+import bio.terra.externalcreds.ExternalCredsException;
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Optional;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Encrypts cached access tokens with AES-GCM using the key from
+ * externalcreds.access-token-cache-encryption-key. The stored format is a version byte, the 12
+ * byte nonce and the ciphertext with its 16 byte tag. The linked account id is used as associated
+ * data so a ciphertext cannot be moved to another linked account's row.
+ */
+@Component
+@Slf4j
+public class AccessTokenEncryptor {
+  private static final byte FORMAT_VERSION = 1;
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+  private static final int NONCE_LENGTH = 12;
+  private static final int TAG_LENGTH_BITS = 128;
+
+  private final Optional<SecretKey> key;
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  public AccessTokenEncryptor(ExternalCredsConfig externalCredsConfig) {
+    this.key =
+        externalCredsConfig.getAccessTokenCacheEncryptionKey().map(AccessTokenEncryptor::createKey);
+  }
+
+  /**
+   * Fails startup on a key that is not base64 or not a valid AES key, rather than failing every
+   * encrypt and decrypt at runtime.
+   */
+  private static SecretKey createKey(String encodedKey) {
+    byte[] keyBytes;
+    try {
+      keyBytes = Base64.getDecoder().decode(encodedKey);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("access-token-cache-encryption-key is not base64", e);
+    }
+    if (keyBytes.length != 16 && keyBytes.length != 24 && keyBytes.length != 32) {
+      throw new IllegalArgumentException(
+          "access-token-cache-encryption-key must be 16, 24 or 32 bytes, got " + keyBytes.length);
+    }
+    var secretKey = new SecretKeySpec(keyBytes, "AES");
+    try {
+      var cipher = Cipher.getInstance(TRANSFORMATION);
+      cipher.init(
+          Cipher.ENCRYPT_MODE,
+          secretKey,
+          new GCMParameterSpec(TAG_LENGTH_BITS, new byte[NONCE_LENGTH]));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalArgumentException("access-token-cache-encryption-key is not usable", e);
+    }
+    return secretKey;
+  }
+
+  /** Whether a key is configured; without one access tokens are stored as plain text */
+  public boolean isEnabled() {
+    return key.isPresent();
+  }
+
+  public byte[] encrypt(int linkedAccountId, String accessToken) {
+    var nonce = new byte[NONCE_LENGTH];
+    secureRandom.nextBytes(nonce);
+    try {
+      var cipher = Cipher.getInstance(TRANSFORMATION);
+      cipher.init(
+          Cipher.ENCRYPT_MODE, key.orElseThrow(), new GCMParameterSpec(TAG_LENGTH_BITS, nonce));
+      cipher.updateAAD(associatedData(linkedAccountId));
+      var ciphertext = cipher.doFinal(accessToken.getBytes(StandardCharsets.UTF_8));
+      return ByteBuffer.allocate(1 + NONCE_LENGTH + ciphertext.length)
+          .put(FORMAT_VERSION)
+          .put(nonce)
+          .put(ciphertext)
+          .array();
+    } catch (GeneralSecurityException e) {
+      throw new ExternalCredsException("Failed to encrypt access token", e);
+    }
+  }
+
+  /**
+   * Reads an access token stored in either format: encrypted, or as plain text from before a key
+   * was configured.
+   *
+   * @return Optional<String> the access token, or empty if there is none or it cannot be decrypted
+   */
+  public Optional<String> getAccessToken(
+      int linkedAccountId, String accessToken, byte[] encryptedAccessToken) {
+    if (encryptedAccessToken != null) {
+      return decrypt(linkedAccountId, encryptedAccessToken);
+    }
+    return Optional.ofNullable(accessToken);
+  }
+
+  /**
+   * @return Optional<String> the access token, or empty if it cannot be decrypted with the current
+   *     key, in which case the caller should treat it as not cached
+   */
+  public Optional<String> decrypt(int linkedAccountId, byte[] encryptedAccessToken) {
+    if (key.isEmpty()
+        || encryptedAccessToken.length <= 1 + NONCE_LENGTH
+        || encryptedAccessToken[0] != FORMAT_VERSION) {
+      log.warn("Cannot decrypt cached access token for linked account {}", linkedAccountId);
+      return Optional.empty();
+    }
+    try {
+      var cipher = Cipher.getInstance(TRANSFORMATION);
+      cipher.init(
+          Cipher.DECRYPT_MODE,
+          key.get(),
+          new GCMParameterSpec(TAG_LENGTH_BITS, encryptedAccessToken, 1, NONCE_LENGTH));
+      cipher.updateAAD(associatedData(linkedAccountId));
+      var plaintext =
+          cipher.doFinal(
+              encryptedAccessToken,
+              1 + NONCE_LENGTH,
+              encryptedAccessToken.length - 1 - NONCE_LENGTH);
+      return Optional.of(new String(plaintext, StandardCharsets.UTF_8));
+    } catch (GeneralSecurityException e) {
+      log.warn("Cannot decrypt cached access token for linked account {}", linkedAccountId, e);
+      return Optional.empty();
+    }
+  }
+
+  private static byte[] associatedData(int linkedAccountId) {
+    return ByteBuffer.allocate(Integer.BYTES).putInt(linkedAccountId).array();
+  }
+}
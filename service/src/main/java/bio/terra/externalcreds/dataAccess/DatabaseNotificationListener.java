@@ -0,0 +1,194 @@
+package bio.terra.externalcreds.dataAccess;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Listens on a dedicated database connection for the notifications the DAOs send so that every
+ * instance learns about changes made by the others:
+ *
+ * <ul>
+ *   <li>FenceAccountKeyDAO notifies when a fence account key is saved, waking up subscribers
+ *       waiting for the key
+ *   <li>LinkedAccountDAO notifies when a linked account is deleted, so every instance can drop what
+ *       it has cached for the linked account
+ * </ul>
+ *
+ * The connection is opened outside of the connection pool so that it does not take a pooled
+ * connection for the life of the application. It is opened when the application context starts,
+ * not when the bean is created. Postgres only delivers a notification once the sending transaction
+ * commits, so a listener that is woken up can read the change immediately. Notifications sent while
+ * the connection is being reestablished are missed, listeners have to handle not being woken up.
+ */
+@Component
+@Slf4j
+public class DatabaseNotificationListener implements SmartLifecycle {
+  static final String FENCE_ACCOUNT_KEY_SAVED_CHANNEL = "fence_account_key_saved";
+  static final String LINKED_ACCOUNT_DELETED_CHANNEL = "linked_account_deleted";
+  private static final int POLL_INTERVAL_MILLIS = 1000;
+  private static final long RECONNECT_DELAY_MILLIS = 5000;
+
+  private final DataSource dataSource;
+  private final ConcurrentHashMap<Integer, Set<CompletableFuture<Void>>> subscribers =
+      new ConcurrentHashMap<>();
+  private final List<IntConsumer> keySavedListeners = new CopyOnWriteArrayList<>();
+  private final List<IntConsumer> linkedAccountDeletedListeners = new CopyOnWriteArrayList<>();
+  private ExecutorService executor;
+
+  public DatabaseNotificationListener(DataSourceProperties dataSourceProperties) {
+    this.dataSource =
+        dataSourceProperties
+            .initializeDataSourceBuilder()
+            .type(SimpleDriverDataSource.class)
+            .build();
+  }
+
+  @Override
+  public synchronized void start() {
+    if (executor == null) {
+      executor =
+          Executors.newSingleThreadExecutor(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("database-notification-listener-%d")
+                  .setDaemon(true)
+                  .build());
+      executor.submit(this::listen);
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (executor == null) {
+      return;
+    }
+    executor.shutdownNow();
+    try {
+      if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+        log.warn("database notification listener did not terminate");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    executor = null;
+  }
+
+  @Override
+  public synchronized boolean isRunning() {
+    return executor != null;
+  }
+
+  /**
+   * @param linkedAccountId The linked account whose fence account key is being waited for
+   * @return CompletableFuture<Void> completed when a fence account key is saved for the linked
+   *     account. Callers must unsubscribe it when they stop waiting.
+   */
+  public CompletableFuture<Void> subscribe(int linkedAccountId) {
+    var subscription = new CompletableFuture<Void>();
+    subscribers.compute(
+        linkedAccountId,
+        (id, subscriptions) -> {
+          Set<CompletableFuture<Void>> result =
+              subscriptions != null ? subscriptions : ConcurrentHashMap.newKeySet();
+          result.add(subscription);
+          return result;
+        });
+    return subscription;
+  }
+
+  /** keySavedListener is called with the linked account id of every fence account key saved */
+  public void addKeySavedListener(IntConsumer keySavedListener) {
+    keySavedListeners.add(keySavedListener);
+  }
+
+  /**
+   * linkedAccountDeletedListener is called with the id of every linked account deleted, once the
+   * deleting transaction commits
+   */
+  public void addLinkedAccountDeletedListener(IntConsumer linkedAccountDeletedListener) {
+    linkedAccountDeletedListeners.add(linkedAccountDeletedListener);
+  }
+
+  public void unsubscribe(int linkedAccountId, CompletableFuture<Void> subscription) {
+    subscribers.computeIfPresent(
+        linkedAccountId,
+        (id, subscriptions) -> {
+          subscriptions.remove(subscription);
+          return subscriptions.isEmpty() ? null : subscriptions;
+        });
+  }
+
+  private void listen() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try (var connection = dataSource.getConnection()) {
+        receiveNotifications(connection);
+      } catch (SQLException e) {
+        log.warn("Lost the connection listening for database notifications", e);
+        try {
+          Thread.sleep(RECONNECT_DELAY_MILLIS);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  private void receiveNotifications(Connection connection) throws SQLException {
+    try (var statement = connection.createStatement()) {
+      statement.execute("LISTEN " + FENCE_ACCOUNT_KEY_SAVED_CHANNEL);
+      statement.execute("LISTEN " + LINKED_ACCOUNT_DELETED_CHANNEL);
+    }
+    var pgConnection = connection.unwrap(PGConnection.class);
+    while (!Thread.currentThread().isInterrupted()) {
+      var notifications = pgConnection.getNotifications(POLL_INTERVAL_MILLIS);
+      if (notifications != null) {
+        for (var notification : notifications) {
+          handleNotification(notification);
+        }
+      }
+    }
+  }
+
+  private void handleNotification(PGNotification notification) {
+    int linkedAccountId;
+    try {
+      linkedAccountId = Integer.parseInt(notification.getParameter());
+    } catch (NumberFormatException e) {
+      log.warn(
+          "Ignoring {} notification with payload {}",
+          notification.getName(),
+          notification.getParameter());
+      return;
+    }
+    if (LINKED_ACCOUNT_DELETED_CHANNEL.equals(notification.getName())) {
+      linkedAccountDeletedListeners.forEach(listener -> listener.accept(linkedAccountId));
+    } else {
+      notifySubscribers(linkedAccountId);
+    }
+  }
+
+  private void notifySubscribers(int linkedAccountId) {
+    keySavedListeners.forEach(keySavedListener -> keySavedListener.accept(linkedAccountId));
+    var subscriptions = subscribers.remove(linkedAccountId);
+    if (subscriptions != null) {
+      subscriptions.forEach(subscription -> subscription.complete(null));
+    }
+  }
+}
@@ -1,87 +1,124 @@
 package bio.terra.externalcreds.dataAccess;
 
-import bio.terra.common.db.ReadTransaction;
-import bio.terra.common.db.WriteTransaction;
-import bio.terra.externalcreds.models.DistributedLock;
+import bio.terra.externalcreds.config.DistributedLockConfiguration;
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import bio.terra.externalcreds.exception.DistributedLockException;
 import io.opentelemetry.instrumentation.annotations.WithSpan;
-import java.sql.Timestamp;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.dao.support.DataAccessUtils;
-import org.springframework.jdbc.core.RowMapper;
+import org.springframework.dao.PessimisticLockingFailureException;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Repository
 @Slf4j
 public class DistributedLockDAO {
 
-  private static final RowMapper<DistributedLock> DISTRIBUTED_LOCK_ROW_MAPPER =
-      ((rs, rowNum) ->
-          new DistributedLock.Builder()
-              .lockName(rs.getString("lock_name"))
-              .userId(rs.getString("user_id"))
-              .expiresAt(rs.getTimestamp("expires_at").toInstant())
-              .build());
-
   final NamedParameterJdbcTemplate jdbcTemplate;
+  private final TransactionTemplate lockTransactionTemplate;
+  private final int maxConcurrentLocksPerName;
+  private final ConcurrentHashMap<String, Semaphore> lockPermits = new ConcurrentHashMap<>();
 
-  public DistributedLockDAO(NamedParameterJdbcTemplate jdbcTemplate) {
+  public DistributedLockDAO(
+      NamedParameterJdbcTemplate jdbcTemplate,
+      PlatformTransactionManager transactionManager,
+      ExternalCredsConfig externalCredsConfig) {
     this.jdbcTemplate = jdbcTemplate;
+    this.maxConcurrentLocksPerName =
+        Optional.ofNullable(externalCredsConfig.getDistributedLockConfiguration())
+            .orElseGet(DistributedLockConfiguration::create)
+            .getMaxConcurrentLocksPerName();
+    // read committed so that once the lock is obtained, the action sees everything the previous
+    // holder committed; a new transaction so the lock and its lock_timeout end when runWithLock
+    // returns, even when called inside a caller's transaction
+    this.lockTransactionTemplate = new TransactionTemplate(transactionManager);
+    this.lockTransactionTemplate.setPropagationBehavior(
+        TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.lockTransactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
   }
 
   /**
+   * Runs action while holding a Postgres advisory lock on lockName and userId. action runs in a new
+   * read committed transaction that commits when action returns, which also releases the lock, so
+   * anything action writes is visible to the next holder. Waiters are woken as soon as the lock is
+   * released.
+   *
+   * <p>The lock is not reentrant: calling runWithLock for the same lockName and userId from action
+   * waits on the outer lock until timeout.
+   *
+   * <p>Holding or waiting on the lock holds a pooled connection, so action should not make slow
+   * external calls that do not need the lock. At most
+   * DistributedLockConfiguration.getMaxConcurrentLocksPerName() locks with the same lockName are
+   * held or waited on at once, so one kind of lock cannot hold up the others.
+   *
    * @param lockName The name of the lock, e.g {provider}-createKey
    * @param userId The Sam user id
-   * @return Optional<DistributedLock> An optional containing the distributed lock with this
-   *     lockName and userId (or empty)
+   * @param timeout How long to wait for the lock
+   * @param action What to do while holding the lock
+   * @return T The result of action
+   * @throws DistributedLockException if the lock could not be obtained within timeout
    */
   @WithSpan
-  @ReadTransaction
-  public Optional<DistributedLock> getDistributedLock(String lockName, String userId) {
-    var namedParameters =
-        new MapSqlParameterSource().addValue("lockName", lockName).addValue("userId", userId);
-    var query =
-        "SELECT lock_name, user_id, expires_at FROM distributed_lock WHERE lock_name = :lockName AND user_id = :userId";
-    return Optional.ofNullable(
-        DataAccessUtils.singleResult(
-            jdbcTemplate.query(query, namedParameters, DISTRIBUTED_LOCK_ROW_MAPPER)));
+  public <T> T runWithLock(String lockName, String userId, Duration timeout, Supplier<T> action) {
+    var deadline = System.nanoTime() + timeout.toNanos();
+    var permits =
+        lockPermits.computeIfAbsent(lockName, name -> new Semaphore(maxConcurrentLocksPerName));
+    acquirePermit(permits, lockName, userId, timeout);
+    try {
+      return lockTransactionTemplate.execute(
+          status -> {
+            obtainLock(
+                lockName, userId, Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+            return action.get();
+          });
+    } finally {
+      permits.release();
+    }
   }
 
-  /**
-   * @param distributedLock The DistributedLock to insert
-   * @return distributedLock The DistributedLock that was inserted
-   */
-  @WithSpan
-  @WriteTransaction
-  public DistributedLock insertDistributedLock(DistributedLock distributedLock) {
-    var query =
-        "INSERT INTO distributed_lock (lock_name, user_id, expires_at)"
-            + " VALUES (:lockName, :userId, :expiresAt)";
-
-    var namedParameters =
-        new MapSqlParameterSource()
-            .addValue("lockName", distributedLock.getLockName())
-            .addValue("userId", distributedLock.getUserId())
-            .addValue("expiresAt", Timestamp.from(distributedLock.getExpiresAt()));
-
-    jdbcTemplate.update(query, namedParameters);
-    return distributedLock;
+  private void acquirePermit(
+      Semaphore permits, String lockName, String userId, Duration timeout) {
+    boolean acquired;
+    try {
+      acquired = permits.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      acquired = false;
+    }
+    if (!acquired) {
+      log.info("Timed out waiting for a lock permit for lock {} for user {}", lockName, userId);
+      throw new DistributedLockException(
+          String.format("Too many locks in use to obtain lock %s for user %s", lockName, userId));
+    }
   }
 
-  /**
-   * @param lockName The name of the lock, e.g {provider}-createKey
-   * @param userId The Sam user id
-   * @return boolean whether a distributed lock was found and deleted
-   */
-  @WithSpan
-  @WriteTransaction
-  public boolean deleteDistributedLock(String lockName, String userId) {
-    var query = "DELETE FROM distributed_lock WHERE lock_name = :lockName AND user_id = :userId";
+  private void obtainLock(String lockName, String userId, Duration timeout) {
     var namedParameters =
-        new MapSqlParameterSource().addValue("lockName", lockName).addValue("userId", userId);
-
-    return jdbcTemplate.update(query, namedParameters) > 0;
+        new MapSqlParameterSource()
+            .addValue("lockKey", lockName + ":" + userId)
+            .addValue("lockTimeout", Math.max(1, timeout.toMillis()) + "ms");
+    // lock_timeout stays set for the rest of the lock's transaction, where it only bounds waits on
+    // locks
+    jdbcTemplate.queryForObject(
+        "SELECT set_config('lock_timeout', :lockTimeout, true)", namedParameters, String.class);
+    try {
+      jdbcTemplate.queryForObject(
+          "SELECT 1 FROM pg_advisory_xact_lock(hashtextextended(:lockKey, 0))",
+          namedParameters,
+          Integer.class);
+    } catch (PessimisticLockingFailureException e) {
+      log.info("Timed out waiting for lock {} for user {}", lockName, userId);
+      throw new DistributedLockException(
+          String.format("Encountered lock %s for user %s", lockName, userId));
+    }
   }
 }
@@ -89,6 +89,14 @@ public class FenceAccountKeyDAO {
     var generatedKeyHolder = new GeneratedKeyHolder();
     jdbcTemplate.update(query, namedParameters, generatedKeyHolder);
 
+    // delivered when the transaction commits, waking anyone waiting for this key
+    jdbcTemplate.queryForObject(
+        "SELECT pg_notify(:channel, :linkedAccountId)",
+        new MapSqlParameterSource()
+            .addValue("channel", DatabaseNotificationListener.FENCE_ACCOUNT_KEY_SAVED_CHANNEL)
+            .addValue("linkedAccountId", String.valueOf(fenceAccountKey.getLinkedAccountId())),
+        String.class);
+
     return fenceAccountKey.withId(Objects.requireNonNull(generatedKeyHolder.getKey()).intValue());
   }
 
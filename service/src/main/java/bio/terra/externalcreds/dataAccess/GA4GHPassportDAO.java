@@ -60,6 +60,36 @@ public class GA4GHPassportDAO {
     return passport.withId(Objects.requireNonNull(generatedKeyHolder.getKey()).intValue());
   }
 
+  /**
+   * Inserts the passport or, if the linked account already has one, updates it in place so that
+   * the existing passport id, and the visas referencing it, are kept.
+   */
+  @WithSpan
+  public GA4GHPassport upsertPassport(GA4GHPassport passport) {
+    var query =
+        "INSERT INTO ga4gh_passport (linked_account_id, jwt, expires, jwt_id)"
+            + " VALUES (:linkedAccountId, :jwt, :expires, :jwtId)"
+            + " ON CONFLICT (linked_account_id) DO UPDATE SET"
+            + " jwt = excluded.jwt,"
+            + " expires = excluded.expires,"
+            + " jwt_id = excluded.jwt_id"
+            + " RETURNING id";
+
+    var namedParameters =
+        new MapSqlParameterSource()
+            .addValue("linkedAccountId", passport.getLinkedAccountId().orElseThrow())
+            .addValue("jwt", passport.getJwt())
+            .addValue("expires", passport.getExpires())
+            .addValue("jwtId", passport.getJwtId());
+
+    // generatedKeyHolder will hold the id returned by the query as specified by the RETURNING
+    // clause
+    var generatedKeyHolder = new GeneratedKeyHolder();
+    jdbcTemplate.update(query, namedParameters, generatedKeyHolder);
+
+    return passport.withId(Objects.requireNonNull(generatedKeyHolder.getKey()).intValue());
+  }
+
   @WithSpan
   public Optional<GA4GHPassport> getPassport(String userId, Provider provider) {
     var namedParameters =
@@ -9,13 +9,16 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.IntStream;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.stereotype.Repository;
 
@@ -23,6 +26,10 @@ import org.springframework.stereotype.Repository;
 @Slf4j
 public class GA4GHVisaDAO {
 
+  private static final String INSERT_VISA_QUERY =
+      "INSERT INTO ga4gh_visa (passport_id, visa_type, jwt, expires, issuer, token_type, last_validated)"
+          + " VALUES (:passportId, :visaType, :jwt, :expires, :issuer, :tokenType, :lastValidated)";
+
   final NamedParameterJdbcTemplate jdbcTemplate;
 
   public GA4GHVisaDAO(NamedParameterJdbcTemplate jdbcTemplate) {
@@ -31,32 +38,83 @@ public class GA4GHVisaDAO {
 
   @WithSpan
   public GA4GHVisa insertVisa(GA4GHVisa visa) {
-    var query =
-        "INSERT INTO ga4gh_visa (passport_id, visa_type, jwt, expires, issuer, token_type, last_validated)"
-            + " VALUES (:passportId, :visaType, :jwt, :expires, :issuer, :tokenType, :lastValidated)"
-            + " RETURNING id";
-
-    var namedParameters =
-        new MapSqlParameterSource()
-            .addValue("passportId", visa.getPassportId().orElseThrow())
-            .addValue("visaType", visa.getVisaType())
-            .addValue("jwt", visa.getJwt())
-            .addValue("expires", visa.getExpires())
-            .addValue("issuer", visa.getIssuer())
-            .addValue(
-                "tokenType",
-                visa.getTokenType(),
-                Types.OTHER) // because it's an enum, not a string...
-            .addValue("lastValidated", visa.getLastValidated().orElse(null));
+    var query = INSERT_VISA_QUERY + " RETURNING id";
 
     // generatedKeyHolder will hold the id returned by the query as specified by the RETURNING
     // clause
     var generatedKeyHolder = new GeneratedKeyHolder();
-    jdbcTemplate.update(query, namedParameters, generatedKeyHolder);
+    jdbcTemplate.update(query, toInsertParameters(visa), generatedKeyHolder);
 
     return visa.withId(Objects.requireNonNull(generatedKeyHolder.getKey()).intValue());
   }
 
+  /**
+   * Inserts all visas in a single jdbc batch.
+   *
+   * @return the visas with their generated ids, in the same order as visas
+   */
+  @WithSpan
+  public List<GA4GHVisa> insertVisas(List<? extends GA4GHVisa> visas) {
+    if (visas.isEmpty()) {
+      return List.of();
+    }
+
+    // the driver appends a RETURNING clause for the requested key columns, the generated keys are
+    // returned in batch order
+    var generatedKeyHolder = new GeneratedKeyHolder();
+    jdbcTemplate.batchUpdate(
+        INSERT_VISA_QUERY,
+        visas.stream().map(GA4GHVisaDAO::toInsertParameters).toArray(SqlParameterSource[]::new),
+        generatedKeyHolder,
+        new String[] {"id"});
+
+    var keys = generatedKeyHolder.getKeyList();
+    return IntStream.range(0, visas.size())
+        .<GA4GHVisa>mapToObj(
+            i -> visas.get(i).withId(((Number) keys.get(i).get("id")).intValue()))
+        .toList();
+  }
+
+  /** Updates all columns of each visa, matched by id, in a single jdbc batch. */
+  @WithSpan
+  public void updateVisas(List<? extends GA4GHVisa> visas) {
+    if (visas.isEmpty()) {
+      return;
+    }
+
+    var query =
+        "UPDATE ga4gh_visa SET passport_id = :passportId, visa_type = :visaType, jwt = :jwt,"
+            + " expires = :expires, issuer = :issuer, token_type = :tokenType,"
+            + " last_validated = :lastValidated"
+            + " WHERE id = :id";
+
+    jdbcTemplate.batchUpdate(
+        query,
+        visas.stream()
+            .map(v -> toInsertParameters(v).addValue("id", v.getId().orElseThrow()))
+            .toArray(SqlParameterSource[]::new));
+  }
+
+  /** @return the number of visas deleted */
+  @WithSpan
+  public int deleteVisas(Collection<Integer> visaIds) {
+    var namedParameters = new MapSqlParameterSource("ids", visaIds.toArray(Integer[]::new));
+    var query = "DELETE FROM ga4gh_visa WHERE id = ANY(:ids)";
+    return jdbcTemplate.update(query, namedParameters);
+  }
+
+  private static MapSqlParameterSource toInsertParameters(GA4GHVisa visa) {
+    return new MapSqlParameterSource()
+        .addValue("passportId", visa.getPassportId().orElseThrow())
+        .addValue("visaType", visa.getVisaType())
+        .addValue("jwt", visa.getJwt())
+        .addValue("expires", visa.getExpires())
+        .addValue("issuer", visa.getIssuer())
+        .addValue(
+            "tokenType", visa.getTokenType(), Types.OTHER) // because it's an enum, not a string...
+        .addValue("lastValidated", visa.getLastValidated().orElse(null));
+  }
+
   @WithSpan
   public List<GA4GHVisa> listVisas(String userId, Provider provider) {
     var namedParameters =
@@ -90,14 +148,16 @@ public class GA4GHVisaDAO {
     return jdbcTemplate.query(query, namedParameters, new VisaVerificationDetailsRowMapper());
   }
 
+  /** @return the number of visas updated */
   @WithSpan
-  public void updateLastValidated(int visaId, Timestamp newLastValidated) {
+  public int updateLastValidated(Collection<Integer> visaIds, Timestamp newLastValidated) {
     var namedParameters =
-        new MapSqlParameterSource("id", visaId).addValue("newLastValidated", newLastValidated);
+        new MapSqlParameterSource("ids", visaIds.toArray(Integer[]::new))
+            .addValue("newLastValidated", newLastValidated);
 
-    var query = "UPDATE ga4gh_visa set last_validated = :newLastValidated where id = :id";
+    var query = "UPDATE ga4gh_visa set last_validated = :newLastValidated where id = ANY(:ids)";
 
-    jdbcTemplate.update(query, namedParameters);
+    return jdbcTemplate.update(query, namedParameters);
   }
 
   private static class GA4GHVisaRowMapper implements RowMapper<GA4GHVisa> {
@@ -1,9 +1,14 @@
 package bio.terra.externalcreds.dataAccess;
 
 import bio.terra.externalcreds.generated.model.Provider;
+import bio.terra.externalcreds.models.AccessTokenCacheEntry;
 import bio.terra.externalcreds.models.LinkedAccount;
+import bio.terra.externalcreds.models.LinkedAccountWithAccessTokenCacheEntry;
 import io.opentelemetry.instrumentation.annotations.WithSpan;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,9 +40,35 @@ public class LinkedAccountDAO {
               .build());
 
   final NamedParameterJdbcTemplate jdbcTemplate;
+  private final AccessTokenEncryptor accessTokenEncryptor;
 
-  public LinkedAccountDAO(NamedParameterJdbcTemplate jdbcTemplate) {
+  public LinkedAccountDAO(
+      NamedParameterJdbcTemplate jdbcTemplate, AccessTokenEncryptor accessTokenEncryptor) {
     this.jdbcTemplate = jdbcTemplate;
+    this.accessTokenEncryptor = accessTokenEncryptor;
+  }
+
+  private LinkedAccountWithAccessTokenCacheEntry mapLinkedAccountWithAccessTokenCacheEntry(
+      ResultSet rs, int rowNum) throws SQLException {
+    var linkedAccount = LINKED_ACCOUNT_ROW_MAPPER.mapRow(rs, rowNum);
+    var linkedAccountId = linkedAccount.getId().orElseThrow();
+    var accessToken =
+        accessTokenEncryptor.getAccessToken(
+            linkedAccountId, rs.getString("access_token"), rs.getBytes("encrypted_access_token"));
+    if (accessToken.isEmpty()) {
+      return new LinkedAccountWithAccessTokenCacheEntry.Builder()
+          .linkedAccount(linkedAccount)
+          .build();
+    }
+    return new LinkedAccountWithAccessTokenCacheEntry.Builder()
+        .linkedAccount(linkedAccount)
+        .accessTokenCacheEntry(
+            new AccessTokenCacheEntry.Builder()
+                .linkedAccountId(linkedAccountId)
+                .accessToken(accessToken.get())
+                .expiresAt(rs.getTimestamp("access_token_expires_at").toInstant())
+                .build())
+        .build();
   }
 
   @WithSpan
@@ -53,6 +84,31 @@ public class LinkedAccountDAO {
             jdbcTemplate.query(query, namedParameters, LINKED_ACCOUNT_ROW_MAPPER)));
   }
 
+  /**
+   * Gets the linked account together with its cached access token, if any, in a single query.
+   *
+   * @param userId The Sam user id
+   * @param provider The provider of the linked account
+   */
+  @WithSpan
+  public Optional<LinkedAccountWithAccessTokenCacheEntry> getLinkedAccountWithAccessTokenCacheEntry(
+      String userId, Provider provider) {
+    var namedParameters =
+        new MapSqlParameterSource()
+            .addValue("userId", userId)
+            .addValue("provider", provider.name());
+    var query =
+        "SELECT la.*, token.access_token, token.encrypted_access_token,"
+            + " token.expires_at AS access_token_expires_at"
+            + " FROM linked_account la"
+            + " LEFT JOIN access_token_cache token ON token.linked_account_id = la.id"
+            + " WHERE la.user_id = :userId AND la.provider = :provider::provider_enum";
+    return Optional.ofNullable(
+        DataAccessUtils.singleResult(
+            jdbcTemplate.query(
+                query, namedParameters, this::mapLinkedAccountWithAccessTokenCacheEntry)));
+  }
+
   @WithSpan
   public Optional<LinkedAccount> getLinkedAccount(int linkedAccountId) {
     var namedParameters = new MapSqlParameterSource().addValue("linkedAccountId", linkedAccountId);
@@ -62,18 +118,95 @@ public class LinkedAccountDAO {
             jdbcTemplate.query(query, namedParameters, LINKED_ACCOUNT_ROW_MAPPER)));
   }
 
+  /**
+   * Gets one page of authenticated linked accounts with a passport or visa expiring before
+   * expirationCutoff, ordered by id. Pass the id of the last linked account of a page as afterId to
+   * get the next page.
+   *
+   * @param expirationCutoff passports or visas expiring at or before this time are expiring
+   * @param afterId only linked accounts with an id greater than this are returned
+   * @param limit maximum number of linked accounts to return
+   */
   @WithSpan
-  public List<LinkedAccount> getExpiringLinkedAccounts(Timestamp expirationCutoff) {
-    var namedParameters = new MapSqlParameterSource("expirationCutoff", expirationCutoff);
+  public List<LinkedAccount> getExpiringLinkedAccounts(
+      Timestamp expirationCutoff, int afterId, int limit) {
+    var namedParameters =
+        new MapSqlParameterSource("expirationCutoff", expirationCutoff)
+            .addValue("afterId", afterId)
+            .addValue("limit", limit);
     var query =
-        "SELECT DISTINCT la.* FROM linked_account la"
-            + " JOIN ga4gh_passport passport"
-            + " ON passport.linked_account_id = la.id"
+        "SELECT la.* FROM linked_account la"
+            + " WHERE la.is_authenticated = true"
+            + " AND la.id > :afterId"
+            + " AND EXISTS (SELECT 1 FROM ga4gh_passport passport"
             + " LEFT JOIN ga4gh_visa visa"
             + " ON visa.passport_id = passport.id"
-            + " WHERE (passport.expires <= :expirationCutoff"
-            + " OR visa.expires <= :expirationCutoff)"
-            + " AND la.is_authenticated = true";
+            + " WHERE passport.linked_account_id = la.id"
+            + " AND (passport.expires <= :expirationCutoff"
+            + " OR visa.expires <= :expirationCutoff))"
+            + " ORDER BY la.id"
+            + " LIMIT :limit";
+    return jdbcTemplate.query(query, namedParameters, LINKED_ACCOUNT_ROW_MAPPER);
+  }
+
+  /**
+   * Gets one page of unexpired, authenticated linked accounts whose cached access token expires
+   * before expirationCutoff and was read since readSince, ordered by id.
+   *
+   * @param expirationCutoff access tokens expiring at or before this time are expiring
+   * @param readSince only access tokens read at or after this time are returned
+   * @param afterId only linked accounts with an id greater than this are returned
+   * @param limit maximum number of linked accounts to return
+   */
+  @WithSpan
+  public List<LinkedAccount> getLinkedAccountsWithExpiringReadAccessTokens(
+      Timestamp expirationCutoff, Timestamp readSince, int afterId, int limit) {
+    var namedParameters =
+        new MapSqlParameterSource("expirationCutoff", expirationCutoff)
+            .addValue("readSince", readSince)
+            .addValue("afterId", afterId)
+            .addValue("limit", limit);
+    var query =
+        "SELECT la.* FROM linked_account la"
+            + " JOIN access_token_cache token ON token.linked_account_id = la.id"
+            + " WHERE la.is_authenticated = true"
+            + " AND la.expires > now()"
+            + " AND la.id > :afterId"
+            + " AND token.expires_at <= :expirationCutoff"
+            + " AND token.last_read_at >= :readSince"
+            + " ORDER BY la.id"
+            + " LIMIT :limit";
+    return jdbcTemplate.query(query, namedParameters, LINKED_ACCOUNT_ROW_MAPPER);
+  }
+
+  /**
+   * Gets one page of unexpired, authenticated linked accounts of the given providers that have no
+   * fence account key or whose key expires before expirationCutoff, ordered by id.
+   *
+   * @param providers only linked accounts of these providers are returned
+   * @param expirationCutoff fence account keys expiring at or before this time are expiring
+   * @param afterId only linked accounts with an id greater than this are returned
+   * @param limit maximum number of linked accounts to return
+   */
+  @WithSpan
+  public List<LinkedAccount> getLinkedAccountsWithExpiringFenceAccountKeys(
+      Collection<Provider> providers, Timestamp expirationCutoff, int afterId, int limit) {
+    var namedParameters =
+        new MapSqlParameterSource(
+                "providers", providers.stream().map(Provider::name).toArray(String[]::new))
+            .addValue("expirationCutoff", expirationCutoff)
+            .addValue("afterId", afterId)
+            .addValue("limit", limit);
+    var query =
+        "SELECT la.* FROM linked_account la"
+            + " LEFT JOIN fence_account_key fence ON fence.linked_account_id = la.id"
+            + " WHERE la.provider = ANY(:providers::provider_enum[])"
+            + " AND la.is_authenticated = true"
+            + " AND la.expires > now()"
+            + " AND la.id > :afterId"
+            + " AND (fence.id IS NULL OR fence.expires_at <= :expirationCutoff)"
+            + " ORDER BY la.id"
+            + " LIMIT :limit";
     return jdbcTemplate.query(query, namedParameters, LINKED_ACCOUNT_ROW_MAPPER);
   }
 
@@ -114,16 +247,34 @@ public class LinkedAccountDAO {
   @WithSpan
   public boolean deleteLinkedAccountIfExists(String userId, Provider provider) {
     var query =
-        "DELETE FROM linked_account WHERE user_id = :userId and provider = :provider::provider_enum";
+        "DELETE FROM linked_account WHERE user_id = :userId and provider = :provider::provider_enum"
+            + " RETURNING id";
     var namedParameters =
         new MapSqlParameterSource()
             .addValue("userId", userId)
             .addValue("provider", provider.name());
 
-    return jdbcTemplate.update(query, namedParameters) > 0;
+    var deletedId =
+        DataAccessUtils.singleResult(
+            jdbcTemplate.query(query, namedParameters, (rs, rowNum) -> rs.getInt("id")));
+    if (deletedId == null) {
+      return false;
+    }
+
+    // delivered when the transaction commits, so every instance drops what it cached for the link
+    jdbcTemplate.queryForObject(
+        "SELECT pg_notify(:channel, :linkedAccountId)",
+        new MapSqlParameterSource()
+            .addValue("channel", DatabaseNotificationListener.LINKED_ACCOUNT_DELETED_CHANNEL)
+            .addValue("linkedAccountId", String.valueOf(deletedId)),
+        String.class);
+    return true;
   }
 
   public Map<String, LinkedAccount> getLinkedAccountByPassportJwtIds(Set<String> jwtIds) {
+    if (jwtIds.isEmpty()) {
+      return new HashMap<>();
+    }
     var namedParameters = new MapSqlParameterSource("jwtIds", jwtIds);
     var query =
         "SELECT p.jwt_id, la.* FROM linked_account la"
@@ -0,0 +1,14 @@
+package bio.terra.externalcreds.models;
+
+import java.util.Optional;
+import org.immutables.value.Value;
+
+@Value.Immutable
+public interface LinkedAccountWithAccessTokenCacheEntry
+    extends WithLinkedAccountWithAccessTokenCacheEntry {
+  LinkedAccount getLinkedAccount();
+
+  Optional<AccessTokenCacheEntry> getAccessTokenCacheEntry();
+
+  class Builder extends ImmutableLinkedAccountWithAccessTokenCacheEntry.Builder {}
+}
@@ -0,0 +1,12 @@
+package bio.terra.externalcreds.models;
+
+import org.immutables.value.Value;
+
+@Value.Immutable
+public interface LinkedAccountWithFenceAccountKey extends WithLinkedAccountWithFenceAccountKey {
+  LinkedAccount getLinkedAccount();
+
+  FenceAccountKey getFenceAccountKey();
+
+  class Builder extends ImmutableLinkedAccountWithFenceAccountKey.Builder {}
+}
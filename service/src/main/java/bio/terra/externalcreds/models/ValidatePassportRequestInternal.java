@@ -0,0 +1,14 @@
+package bio.terra.externalcreds.models;
+
+import bio.terra.externalcreds.visaComparators.VisaCriterionInternal;
+import java.util.List;
+import org.immutables.value.Value;
+
+@Value.Immutable
+public interface ValidatePassportRequestInternal extends WithValidatePassportRequestInternal {
+  List<String> getPassports();
+
+  List<VisaCriterionInternal> getCriteria();
+
+  class Builder extends ImmutableValidatePassportRequestInternal.Builder {}
+}
@@ -2,113 +2,222 @@ package bio.terra.externalcreds.services;
 
 import bio.terra.common.db.WriteTransaction;
 import bio.terra.externalcreds.auditLogging.AuditLogEvent;
-import bio.terra.externalcreds.auditLogging.AuditLogEventType;
-import bio.terra.externalcreds.auditLogging.AuditLogger;
 import bio.terra.externalcreds.config.ExternalCredsConfig;
 import bio.terra.externalcreds.dataAccess.AccessTokenCacheDAO;
+import bio.terra.externalcreds.dataAccess.DatabaseNotificationListener;
 import bio.terra.externalcreds.models.AccessTokenCacheEntry;
 import bio.terra.externalcreds.models.LinkedAccount;
+import bio.terra.externalcreds.models.LinkedAccountWithAccessTokenCacheEntry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 @Service
 @Slf4j
 public class AccessTokenCacheService {
 
-  private final ProviderTokenClientCache providerTokenClientCache;
-  private final LinkedAccountService linkedAccountService;
-  private final OAuth2Service oAuth2Service;
+  private final AccessTokenRefreshService accessTokenRefreshService;
   private final AccessTokenCacheDAO accessTokenCacheDAO;
   private final ExternalCredsConfig externalCredsConfig;
-  private final AuditLogger auditLogger;
+  private final AccessTokenRefreshCoordinator accessTokenRefreshCoordinator;
+
+  // entries are also checked against their own expiration on every read, the ttl only bounds how
+  // long an entry can outlive a change made by another instance
+  private static final long LOCAL_CACHE_MAXIMUM_SIZE = 10_000;
+  private static final Duration LOCAL_CACHE_MAXIMUM_TTL = Duration.ofHours(1);
+  private final Cache<Integer, AccessTokenCacheEntry> localCache =
+      CacheBuilder.newBuilder()
+          .maximumSize(LOCAL_CACHE_MAXIMUM_SIZE)
+          .expireAfterWrite(LOCAL_CACHE_MAXIMUM_TTL)
+          .build();
+
+  // ids of linked accounts whose access token was read since reads were last saved
+  private static final int READ_FLUSH_CHUNK_SIZE = 500;
+  private final Set<Integer> recentlyReadLinkedAccountIds = ConcurrentHashMap.newKeySet();
+
+  private static final int EXPIRED_DELETE_BATCH_SIZE = 1000;
 
   public AccessTokenCacheService(
-      ProviderTokenClientCache providerTokenClientCache,
-      LinkedAccountService linkedAccountService,
-      OAuth2Service oAuth2Service,
+      AccessTokenRefreshService accessTokenRefreshService,
       AccessTokenCacheDAO accessTokenCacheDAO,
       ExternalCredsConfig externalCredsConfig,
-      AuditLogger auditLogger) {
-    this.providerTokenClientCache = providerTokenClientCache;
-    this.linkedAccountService = linkedAccountService;
-    this.oAuth2Service = oAuth2Service;
+      AccessTokenRefreshCoordinator accessTokenRefreshCoordinator,
+      DatabaseNotificationListener databaseNotificationListener) {
+    this.accessTokenRefreshService = accessTokenRefreshService;
     this.accessTokenCacheDAO = accessTokenCacheDAO;
     this.externalCredsConfig = externalCredsConfig;
-    this.auditLogger = auditLogger;
+    this.accessTokenRefreshCoordinator = accessTokenRefreshCoordinator;
+    // links deleted on any instance
+    databaseNotificationListener.addLinkedAccountDeletedListener(
+        this::invalidateLocalCacheEntry);
   }
 
-  @WriteTransaction
+  /**
+   * Returns a valid access token for the linked account. Tokens are looked up first in a bounded
+   * in-process cache, then in the access_token_cache table shared by all instances, and only if
+   * neither has a token valid for longer than externalCredsConfig.getAccessTokenExpirationBuffer()
+   * is a new token requested from the provider. Cache hits do not open a transaction, only
+   * refreshes do (in AccessTokenRefreshService).
+   */
   public String getLinkedAccountAccessToken(
       LinkedAccount linkedAccount, Set<String> scopes, AuditLogEvent.Builder auditLogEventBuilder) {
-    var tokenCacheEntry =
-        getAccessTokenCacheEntry(linkedAccount)
-            .flatMap(
-                tokenEntry -> {
-                  if (tokenEntry
-                      .getExpiresAt()
-                      .isAfter(
-                          Instant.now()
-                              .plus(externalCredsConfig.getAccessTokenExpirationBuffer()))) {
-                    return Optional.of(tokenEntry.getAccessToken());
-                  }
-                  return Optional.empty();
-                });
-
-    return tokenCacheEntry.orElseGet(
-        () -> getNewProviderAccessToken(linkedAccount, scopes, auditLogEventBuilder));
+    return getLinkedAccountAccessToken(
+        linkedAccount,
+        () -> getAccessTokenCacheEntry(linkedAccount),
+        scopes,
+        auditLogEventBuilder);
   }
 
-  private String getNewProviderAccessToken(
-      LinkedAccount linkedAccount, Set<String> scopes, AuditLogEvent.Builder auditLogEventBuilder) {
-    // get client registration from provider client cache
-    var clientRegistration =
-        providerTokenClientCache.getProviderClient(linkedAccount.getProvider());
-
-    // exchange refresh token for access token
-    var accessTokenResponse =
-        oAuth2Service.authorizeWithRefreshToken(
-            clientRegistration,
-            new OAuth2RefreshToken(linkedAccount.getRefreshToken(), null),
-            scopes);
-
-    // save the linked account with the new refresh token to replace the old one
-    var refreshToken = accessTokenResponse.getRefreshToken();
-    if (refreshToken != null) {
-      linkedAccountService.upsertLinkedAccount(
-          linkedAccount.withRefreshToken(refreshToken.getTokenValue()));
+  /**
+   * Same as getLinkedAccountAccessToken(LinkedAccount, ...) but uses the access token already
+   * loaded with the linked account instead of looking it up again.
+   */
+  public String getLinkedAccountAccessToken(
+      LinkedAccountWithAccessTokenCacheEntry linkedAccountWithAccessToken,
+      Set<String> scopes,
+      AuditLogEvent.Builder auditLogEventBuilder) {
+    return getLinkedAccountAccessToken(
+        linkedAccountWithAccessToken.getLinkedAccount(),
+        linkedAccountWithAccessToken::getAccessTokenCacheEntry,
+        scopes,
+        auditLogEventBuilder);
+  }
+
+  private String getLinkedAccountAccessToken(
+      LinkedAccount linkedAccount,
+      Supplier<Optional<AccessTokenCacheEntry>> savedTokenCacheEntry,
+      Set<String> scopes,
+      AuditLogEvent.Builder auditLogEventBuilder) {
+    linkedAccount.getId().ifPresent(recentlyReadLinkedAccountIds::add);
+
+    var localCacheEntry =
+        linkedAccount.getId().map(localCache::getIfPresent).filter(this::isUnexpired);
+    if (localCacheEntry.isPresent()) {
+      return localCacheEntry.get().getAccessToken();
     }
-    logGetProviderAccessToken(linkedAccount, auditLogEventBuilder);
-
-    return upsertAccessTokenCacheEntry(
-            new AccessTokenCacheEntry.Builder()
-                .linkedAccountId(linkedAccount.getId().orElseThrow())
-                .accessToken(accessTokenResponse.getAccessToken().getTokenValue())
-                .expiresAt(accessTokenResponse.getAccessToken().getExpiresAt())
-                .build())
-        .getAccessToken();
+
+    var tokenCacheEntry = savedTokenCacheEntry.get().filter(this::isUnexpired);
+    tokenCacheEntry.ifPresent(this::cacheLocally);
+
+    return tokenCacheEntry
+        .map(AccessTokenCacheEntry::getAccessToken)
+        .orElseGet(
+            () ->
+                refreshProviderAccessToken(
+                    linkedAccount, this::isUnexpired, scopes, auditLogEventBuilder));
   }
 
-  private Optional<AccessTokenCacheEntry> getAccessTokenCacheEntry(LinkedAccount linkedAccount) {
-    return accessTokenCacheDAO.getAccessTokenCacheEntry(linkedAccount);
+  /**
+   * Gets a new access token for the linked account even if the cached one is still valid, so that
+   * it is not refreshed on the request path once it expires.
+   */
+  public void refreshAccessToken(LinkedAccount linkedAccount) {
+    var providerProperties = externalCredsConfig.getProviderProperties(linkedAccount.getProvider());
+    // a token saved by a concurrent refresh is only good enough if it will not need pre-refreshing
+    var refreshedAfter =
+        Instant.now()
+            .plus(externalCredsConfig.getAccessTokenExpirationBuffer())
+            .plus(externalCredsConfig.getAccessTokenPreRefreshWindow());
+    refreshProviderAccessToken(
+        linkedAccount,
+        tokenEntry -> tokenEntry.getExpiresAt().isAfter(refreshedAfter),
+        new HashSet<>(providerProperties.getScopes()),
+        new AuditLogEvent.Builder()
+            .provider(linkedAccount.getProvider())
+            .userId(linkedAccount.getUserId()));
+  }
+
+  /**
+   * Saves when access tokens were last read so the background job knows which ones to refresh
+   * ahead of their expiration. Reads are kept in memory in between to avoid a write per read.
+   */
+  @Scheduled(fixedRateString = "1", timeUnit = TimeUnit.MINUTES)
+  @WriteTransaction
+  public void saveAccessTokenReads() {
+    var linkedAccountIds = new ArrayList<Integer>();
+    for (var iterator = recentlyReadLinkedAccountIds.iterator(); iterator.hasNext(); ) {
+      linkedAccountIds.add(iterator.next());
+      iterator.remove();
+    }
+    var lastReadAt = Timestamp.from(Instant.now());
+    Lists.partition(linkedAccountIds, READ_FLUSH_CHUNK_SIZE)
+        .forEach(chunk -> accessTokenCacheDAO.updateLastReadAt(chunk, lastReadAt));
   }
 
-  private AccessTokenCacheEntry upsertAccessTokenCacheEntry(
-      AccessTokenCacheEntry accessTokenCacheEntry) {
-    return accessTokenCacheDAO.upsertAccessTokenCacheEntry(accessTokenCacheEntry);
+  /**
+   * Deletes expired access token cache entries. Each batch is its own statement so that no single
+   * transaction locks all expired rows.
+   *
+   * @return the number of access token cache entries deleted
+   */
+  public int deleteExpiredAccessTokens() {
+    var expiredBefore = Timestamp.from(Instant.now());
+    var deletedCount = 0;
+    int batchDeletedCount;
+    do {
+      batchDeletedCount =
+          accessTokenCacheDAO.deleteExpiredAccessTokenCacheEntries(
+              expiredBefore, EXPIRED_DELETE_BATCH_SIZE);
+      deletedCount += batchDeletedCount;
+    } while (batchDeletedCount == EXPIRED_DELETE_BATCH_SIZE);
+    return deletedCount;
   }
 
-  public void logGetProviderAccessToken(
-      LinkedAccount linkedAccount, AuditLogEvent.Builder auditLogEventBuilder) {
-    auditLogger.logEvent(
-        auditLogEventBuilder
-            .externalUserId(linkedAccount.getExternalUserId())
-            .userId(linkedAccount.getUserId())
-            .provider(linkedAccount.getProvider())
-            .auditLogEventType(AuditLogEventType.GetProviderAccessToken)
-            .build());
+  /**
+   * Removes the linked account's access token from the in-process cache. Called when the link is
+   * deleted on any instance and when it is relinked on this one.
+   */
+  public void invalidateLocalCacheEntry(int linkedAccountId) {
+    localCache.invalidate(linkedAccountId);
+  }
+
+  private boolean isUnexpired(AccessTokenCacheEntry tokenEntry) {
+    return tokenEntry
+        .getExpiresAt()
+        .isAfter(Instant.now().plus(externalCredsConfig.getAccessTokenExpirationBuffer()));
+  }
+
+  private void cacheLocally(AccessTokenCacheEntry tokenEntry) {
+    if (isUnexpired(tokenEntry)) {
+      localCache.put(tokenEntry.getLinkedAccountId(), tokenEntry);
+    }
+  }
+
+  /**
+   * Concurrent refreshes of the same linked account are coalesced: each one would otherwise rotate
+   * the refresh token and could invalidate the refresh token saved by the others.
+   */
+  private String refreshProviderAccessToken(
+      LinkedAccount linkedAccount,
+      Predicate<AccessTokenCacheEntry> isUsable,
+      Set<String> scopes,
+      AuditLogEvent.Builder auditLogEventBuilder) {
+    var tokenCacheEntry =
+        accessTokenRefreshCoordinator.refresh(
+            linkedAccount,
+            isUsable,
+            () ->
+                accessTokenRefreshService.getNewProviderAccessToken(
+                    linkedAccount, scopes, auditLogEventBuilder));
+    cacheLocally(tokenCacheEntry);
+    return tokenCacheEntry.getAccessToken();
+  }
+
+  private Optional<AccessTokenCacheEntry> getAccessTokenCacheEntry(LinkedAccount linkedAccount) {
+    return accessTokenCacheDAO.getAccessTokenCacheEntry(linkedAccount);
   }
 }
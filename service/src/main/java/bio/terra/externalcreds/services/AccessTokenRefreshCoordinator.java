@@ -0,0 +1,139 @@
+package bio.terra.externalcreds.services;
+
+import bio.terra.externalcreds.ExternalCredsException;
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import bio.terra.externalcreds.dataAccess.AccessTokenCacheDAO;
+import bio.terra.externalcreds.dataAccess.DistributedLockDAO;
+import bio.terra.externalcreds.exception.DistributedLockException;
+import bio.terra.externalcreds.models.AccessTokenCacheEntry;
+import bio.terra.externalcreds.models.LinkedAccount;
+import com.google.common.annotations.VisibleForTesting;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Makes sure only one refresh token exchange per linked account is in flight at a time. Concurrent
+ * refreshes of the same linked account within this instance wait for the result of the first one.
+ * When distributed access token refresh is enabled, refreshes are also coordinated across
+ * instances with a distributed lock: an instance that finds the lock held waits for it and then
+ * uses the access token the holder saved instead of exchanging the refresh token itself.
+ */
+@Component
+@Slf4j
+public class AccessTokenRefreshCoordinator {
+  private static final String LOCK_NAME_PREFIX = "refreshAccessToken-";
+
+  private final DistributedLockDAO distributedLockDAO;
+  private final AccessTokenCacheDAO accessTokenCacheDAO;
+  private final ExternalCredsConfig externalCredsConfig;
+  private final ConcurrentHashMap<Integer, CompletableFuture<AccessTokenCacheEntry>>
+      inFlightRefreshes = new ConcurrentHashMap<>();
+
+  public AccessTokenRefreshCoordinator(
+      DistributedLockDAO distributedLockDAO,
+      AccessTokenCacheDAO accessTokenCacheDAO,
+      ExternalCredsConfig externalCredsConfig) {
+    this.distributedLockDAO = distributedLockDAO;
+    this.accessTokenCacheDAO = accessTokenCacheDAO;
+    this.externalCredsConfig = externalCredsConfig;
+  }
+
+  /**
+   * @param linkedAccount The saved linked account whose access token is being refreshed
+   * @param isUsable Whether an access token saved by another instance can be used instead
+   * @param exchange Exchanges the linked account's refresh token for a new access token
+   * @return AccessTokenCacheEntry The access token obtained by this or a concurrent refresh
+   */
+  public AccessTokenCacheEntry refresh(
+      LinkedAccount linkedAccount,
+      Predicate<AccessTokenCacheEntry> isUsable,
+      Supplier<AccessTokenCacheEntry> exchange) {
+    if (linkedAccount.getId().isEmpty()) {
+      // nothing to coordinate on, the exchange itself rejects unsaved linked accounts
+      return exchange.get();
+    }
+    var linkedAccountId = linkedAccount.getId().get();
+    var refresh = new CompletableFuture<AccessTokenCacheEntry>();
+    var inFlightRefresh = inFlightRefreshes.putIfAbsent(linkedAccountId, refresh);
+    if (inFlightRefresh != null) {
+      return awaitInFlightRefresh(linkedAccountId, inFlightRefresh);
+    }
+
+    try {
+      var tokenCacheEntry =
+          externalCredsConfig.getDistributedAccessTokenRefreshEnabled()
+              ? refreshWithDistributedLock(linkedAccount, isUsable, exchange)
+              : exchange.get();
+      refresh.complete(tokenCacheEntry);
+      return tokenCacheEntry;
+    } catch (RuntimeException e) {
+      refresh.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlightRefreshes.remove(linkedAccountId, refresh);
+    }
+  }
+
+  /** @return the number of refreshes waiting on the in flight refresh of the linked account */
+  @VisibleForTesting
+  int getWaitingRefreshCount(int linkedAccountId) {
+    var inFlightRefresh = inFlightRefreshes.get(linkedAccountId);
+    return inFlightRefresh == null ? 0 : inFlightRefresh.getNumberOfDependents();
+  }
+
+  private AccessTokenCacheEntry awaitInFlightRefresh(
+      int linkedAccountId, CompletableFuture<AccessTokenCacheEntry> inFlightRefresh) {
+    // the refresh being waited on may itself wait up to the lock timeout for another instance
+    var timeout = getLockTimeout().multipliedBy(2);
+    try {
+      return inFlightRefresh.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new ExternalCredsException(
+          "Failed to refresh the access token for linked account " + linkedAccountId,
+          e.getCause());
+    } catch (TimeoutException e) {
+      throw new DistributedLockException(
+          "Timed out waiting for the access token refresh of linked account " + linkedAccountId);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExternalCredsException(
+          "Interrupted waiting for the access token refresh of linked account " + linkedAccountId,
+          e);
+    }
+  }
+
+  /**
+   * The exchange runs in the lock's transaction, so the new access token is saved before the lock
+   * is released.
+   */
+  private AccessTokenCacheEntry refreshWithDistributedLock(
+      LinkedAccount linkedAccount,
+      Predicate<AccessTokenCacheEntry> isUsable,
+      Supplier<AccessTokenCacheEntry> exchange) {
+    return distributedLockDAO.runWithLock(
+        LOCK_NAME_PREFIX + linkedAccount.getProvider(),
+        linkedAccount.getUserId(),
+        getLockTimeout(),
+        // the previous holder of the lock may have just refreshed the access token
+        () ->
+            accessTokenCacheDAO
+                .getAccessTokenCacheEntry(linkedAccount)
+                .filter(isUsable)
+                .orElseGet(exchange));
+  }
+
+  private Duration getLockTimeout() {
+    return externalCredsConfig.getDistributedLockConfiguration().getLockTimeout();
+  }
+}
@@ -0,0 +1,83 @@
+package bio.terra.externalcreds.services;
+
+import bio.terra.common.db.WriteTransaction;
+import bio.terra.externalcreds.auditLogging.AuditLogEvent;
+import bio.terra.externalcreds.auditLogging.AuditLogEventType;
+import bio.terra.externalcreds.auditLogging.AuditLogger;
+import bio.terra.externalcreds.dataAccess.AccessTokenCacheDAO;
+import bio.terra.externalcreds.models.AccessTokenCacheEntry;
+import bio.terra.externalcreds.models.LinkedAccount;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.stereotype.Service;
+
+/**
+ * Exchanges a linked account's refresh token for a new access token and saves the result. This is
+ * the only part of access token retrieval that writes, so it is the only part that runs in a write
+ * transaction; cache hits in AccessTokenCacheService do not open one.
+ */
+@Service
+@Slf4j
+public class AccessTokenRefreshService {
+
+  private final ProviderTokenClientCache providerTokenClientCache;
+  private final LinkedAccountService linkedAccountService;
+  private final OAuth2Service oAuth2Service;
+  private final AccessTokenCacheDAO accessTokenCacheDAO;
+  private final AuditLogger auditLogger;
+
+  public AccessTokenRefreshService(
+      ProviderTokenClientCache providerTokenClientCache,
+      LinkedAccountService linkedAccountService,
+      OAuth2Service oAuth2Service,
+      AccessTokenCacheDAO accessTokenCacheDAO,
+      AuditLogger auditLogger) {
+    this.providerTokenClientCache = providerTokenClientCache;
+    this.linkedAccountService = linkedAccountService;
+    this.oAuth2Service = oAuth2Service;
+    this.accessTokenCacheDAO = accessTokenCacheDAO;
+    this.auditLogger = auditLogger;
+  }
+
+  @WriteTransaction
+  public AccessTokenCacheEntry getNewProviderAccessToken(
+      LinkedAccount linkedAccount, Set<String> scopes, AuditLogEvent.Builder auditLogEventBuilder) {
+    // get client registration from provider client cache
+    var clientRegistration =
+        providerTokenClientCache.getProviderClient(linkedAccount.getProvider());
+
+    // exchange refresh token for access token
+    var accessTokenResponse =
+        oAuth2Service.authorizeWithRefreshToken(
+            clientRegistration,
+            new OAuth2RefreshToken(linkedAccount.getRefreshToken(), null),
+            scopes);
+
+    // save the linked account with the new refresh token to replace the old one
+    var refreshToken = accessTokenResponse.getRefreshToken();
+    if (refreshToken != null) {
+      linkedAccountService.upsertLinkedAccount(
+          linkedAccount.withRefreshToken(refreshToken.getTokenValue()));
+    }
+    logGetProviderAccessToken(linkedAccount, auditLogEventBuilder);
+
+    return accessTokenCacheDAO.upsertAccessTokenCacheEntry(
+        new AccessTokenCacheEntry.Builder()
+            .linkedAccountId(linkedAccount.getId().orElseThrow())
+            .accessToken(accessTokenResponse.getAccessToken().getTokenValue())
+            .expiresAt(accessTokenResponse.getAccessToken().getExpiresAt())
+            .build());
+  }
+
+  public void logGetProviderAccessToken(
+      LinkedAccount linkedAccount, AuditLogEvent.Builder auditLogEventBuilder) {
+    auditLogger.logEvent(
+        auditLogEventBuilder
+            .externalUserId(linkedAccount.getExternalUserId())
+            .userId(linkedAccount.getUserId())
+            .provider(linkedAccount.getProvider())
+            .auditLogEventType(AuditLogEventType.GetProviderAccessToken)
+            .build());
+  }
+}
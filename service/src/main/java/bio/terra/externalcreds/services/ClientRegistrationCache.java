@@ -0,0 +1,121 @@
+package bio.terra.externalcreds.services;
+
+import bio.terra.externalcreds.generated.model.Provider;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+
+/**
+ * Holds one ClientRegistration per provider for ProviderOAuthClientCache and
+ * ProviderTokenClientCache. Loading a registration usually fetches [provider
+ * issuer]/.well-known/openid-configuration, so instead of evicting entries and making the next
+ * caller wait on that fetch, entries are reloaded on a background thread while the current
+ * registration keeps being served.
+ *
+ * <p>A failed reload keeps the current registration. It is served for at most maxStaleness after
+ * it was loaded, then the next caller loads it again and sees any failure. Hits, misses and load
+ * failures are published as cache metrics under the cache name.
+ */
+@Slf4j
+class ClientRegistrationCache {
+  private final String name;
+  private final Function<Provider, ClientRegistration> loader;
+  private final ExecutorService refreshExecutor;
+  private final LoadingCache<Provider, ClientRegistration> cache;
+
+  ClientRegistrationCache(
+      String name,
+      Function<Provider, ClientRegistration> loader,
+      Duration refreshInterval,
+      Duration maxStaleness,
+      MeterRegistry meterRegistry) {
+    this(
+        name,
+        loader,
+        refreshInterval,
+        maxStaleness,
+        meterRegistry,
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat(name + "-refresh-%d")
+                .setDaemon(true)
+                .build()));
+  }
+
+  @VisibleForTesting
+  ClientRegistrationCache(
+      String name,
+      Function<Provider, ClientRegistration> loader,
+      Duration refreshInterval,
+      Duration maxStaleness,
+      MeterRegistry meterRegistry,
+      ExecutorService refreshExecutor) {
+    this.name = name;
+    this.loader = loader;
+    this.refreshExecutor = refreshExecutor;
+    this.cache =
+        CacheBuilder.newBuilder()
+            .refreshAfterWrite(refreshInterval)
+            .expireAfterWrite(maxStaleness)
+            .recordStats()
+            .build(
+                new CacheLoader<Provider, ClientRegistration>() {
+                  @Override
+                  public ClientRegistration load(Provider provider) {
+                    return loader.apply(provider);
+                  }
+
+                  @Override
+                  public ListenableFuture<ClientRegistration> reload(
+                      Provider provider, ClientRegistration currentRegistration) {
+                    var task = ListenableFutureTask.create(() -> reloadRegistration(provider));
+                    refreshExecutor.execute(task);
+                    return task;
+                  }
+                });
+    GuavaCacheMetrics.monitor(meterRegistry, cache, name);
+  }
+
+  /** Loader exceptions are rethrown as is, callers handle specific exception types */
+  ClientRegistration get(Provider provider) {
+    try {
+      return cache.getUnchecked(provider);
+    } catch (UncheckedExecutionException | ExecutionError e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
+  }
+
+  /** Reloads every cached registration in the background */
+  void refreshAll() {
+    cache.asMap().keySet().forEach(cache::refresh);
+  }
+
+  void shutdown() {
+    refreshExecutor.shutdownNow();
+  }
+
+  private ClientRegistration reloadRegistration(Provider provider) {
+    try {
+      return loader.apply(provider);
+    } catch (RuntimeException e) {
+      log.warn("Failed to refresh {} for provider {}, keeping the current one", name, provider, e);
+      throw e;
+    }
+  }
+}
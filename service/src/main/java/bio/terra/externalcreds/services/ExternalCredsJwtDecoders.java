@@ -1,85 +1,101 @@
 package bio.terra.externalcreds.services;
 
+import com.google.common.collect.Sets;
 import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.KeySourceException;
-import com.nimbusds.jose.jwk.JWK;
-import com.nimbusds.jose.jwk.JWKMatcher;
-import com.nimbusds.jose.jwk.JWKSelector;
-import com.nimbusds.jose.jwk.KeyType;
-import com.nimbusds.jose.jwk.KeyUse;
 import com.nimbusds.jose.jwk.source.JWKSource;
-import com.nimbusds.jose.jwk.source.RemoteJWKSet;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
 import com.nimbusds.jose.proc.SecurityContext;
-import java.net.MalformedURLException;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
 import java.net.URI;
-import java.util.HashSet;
-import java.util.List;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.RequestEntity;
 import org.springframework.security.oauth2.core.OAuth2TokenValidator;
-import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.jwt.JwtDecoder;
 import org.springframework.security.oauth2.jwt.JwtDecoders;
 import org.springframework.security.oauth2.jwt.JwtValidators;
 import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
-import org.springframework.util.Assert;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
-/** provides decoders that are not in {@link JwtDecoders} */
+/**
+ * provides decoders that are not in {@link JwtDecoders}, verifying signatures with keys held by
+ * {@link JwksCache}
+ */
 public class ExternalCredsJwtDecoders {
+  private static final String OIDC_METADATA_PATH = "/.well-known/openid-configuration";
+  private static final RestTemplate restTemplate = new RestTemplate();
+
+  /**
+   * Every algorithm of the key types the decoders built by {@link JwtDecoders} support, rather than
+   * the algorithms of the keys cached when the decoder is built, which may be rotated. Which of
+   * these a token may use is restricted by externalcreds.allowed-jwt-algorithms in JwtUtils.
+   */
+  private static final Set<JWSAlgorithm> JWS_ALGORITHMS =
+      Sets.union(JWSAlgorithm.Family.RSA, JWSAlgorithm.Family.EC).immutableCopy();
+
   private ExternalCredsJwtDecoders() {}
 
   /** Adapted from {@link JwtDecoders#withProviderConfiguration(java.util.Map, String)} */
-  public static JwtDecoder fromJku(URI jku) throws MalformedURLException {
-    OAuth2TokenValidator<Jwt> jwtValidator = JwtValidators.createDefault();
-    RemoteJWKSet<SecurityContext> jwkSource = new RemoteJWKSet<>(jku.toURL());
-    Set<SignatureAlgorithm> signatureAlgorithms = getSignatureAlgorithms(jwkSource);
-    NimbusJwtDecoder jwtDecoder =
-        NimbusJwtDecoder.withJwkSetUri(jku.toString())
-            .jwsAlgorithms((algs) -> algs.addAll(signatureAlgorithms))
-            .build();
-    jwtDecoder.setJwtValidator(jwtValidator);
-    return jwtDecoder;
+  public static JwtDecoder fromJku(URI jku, JwksCache jwksCache) {
+    return createDecoder(jwksCache.getJwkSource(jku), JwtValidators.createDefault());
   }
 
   /**
-   * Copied from {@link
-   * org.springframework.security.oauth2.jwt.JwtDecoderProviderConfigurationUtils#getSignatureAlgorithms(JWKSource)}
-   * because it is private
+   * Adapted from {@link JwtDecoders#fromIssuerLocation(String)}, except that only the OpenID
+   * Connect configuration of the issuer is read: the fallback to the issuer's OAuth 2.0
+   * authorization server metadata (/.well-known/oauth-authorization-server) is not supported. The
+   * issuer's jwks_uri is read once, when the decoder is created.
    */
-  private static Set<SignatureAlgorithm> getSignatureAlgorithms(
-      JWKSource<SecurityContext> jwkSource) {
-    JWKMatcher jwkMatcher =
-        new JWKMatcher.Builder()
-            .publicOnly(true)
-            .keyUses(KeyUse.SIGNATURE, null)
-            .keyTypes(KeyType.RSA, KeyType.EC)
-            .build();
-    Set<JWSAlgorithm> jwsAlgorithms = new HashSet<>();
+  public static JwtDecoder fromIssuer(String issuer, JwksCache jwksCache) {
+    return createDecoder(
+        jwksCache.getJwkSource(getJwksUri(issuer)), JwtValidators.createDefaultWithIssuer(issuer));
+  }
+
+  private static URI getJwksUri(String issuer) {
+    var issuerUri = URI.create(issuer);
+    var configurationUri =
+        UriComponentsBuilder.fromUri(issuerUri)
+            .replacePath(issuerUri.getPath() + OIDC_METADATA_PATH)
+            .build(Collections.emptyMap());
+    Map<String, Object> configuration;
     try {
-      List<? extends JWK> jwks = jwkSource.get(new JWKSelector(jwkMatcher), null);
-      for (JWK jwk : jwks) {
-        if (jwk.getAlgorithm() != null) {
-          JWSAlgorithm jwsAlgorithm = JWSAlgorithm.parse(jwk.getAlgorithm().getName());
-          jwsAlgorithms.add(jwsAlgorithm);
-        } else {
-          if (jwk.getKeyType() == KeyType.RSA) {
-            jwsAlgorithms.addAll(JWSAlgorithm.Family.RSA);
-          } else if (jwk.getKeyType() == KeyType.EC) {
-            jwsAlgorithms.addAll(JWSAlgorithm.Family.EC);
-          }
-        }
-      }
-    } catch (KeySourceException ex) {
-      throw new IllegalStateException(ex);
+      configuration =
+          restTemplate
+              .exchange(
+                  RequestEntity.get(configurationUri).build(),
+                  new ParameterizedTypeReference<Map<String, Object>>() {})
+              .getBody();
+    } catch (RestClientException e) {
+      throw new IllegalArgumentException(
+          String.format("Unable to resolve the configuration of issuer [%s]", issuer), e);
+    }
+    if (configuration == null || !issuer.equals(configuration.get("issuer"))) {
+      throw new IllegalStateException(
+          String.format("The configuration of issuer [%s] names a different issuer", issuer));
     }
-    Set<SignatureAlgorithm> signatureAlgorithms = new HashSet<>();
-    for (JWSAlgorithm jwsAlgorithm : jwsAlgorithms) {
-      SignatureAlgorithm signatureAlgorithm = SignatureAlgorithm.from(jwsAlgorithm.getName());
-      if (signatureAlgorithm != null) {
-        signatureAlgorithms.add(signatureAlgorithm);
-      }
+    var jwksUri = configuration.get("jwks_uri");
+    if (jwksUri == null) {
+      throw new IllegalStateException(
+          String.format("The configuration of issuer [%s] has no jwks_uri", issuer));
     }
-    Assert.notEmpty(signatureAlgorithms, "Failed to find any algorithms from the JWK set");
-    return signatureAlgorithms;
+    return URI.create(jwksUri.toString());
+  }
+
+  private static JwtDecoder createDecoder(
+      JWKSource<SecurityContext> jwkSource, OAuth2TokenValidator<Jwt> jwtValidator) {
+    var jwtProcessor = new DefaultJWTProcessor<SecurityContext>();
+    // the key selector matches the token's alg and kid against the key set jwkSource holds when
+    // the token is verified, so keys loaded after the decoder was built are usable
+    jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWS_ALGORITHMS, jwkSource));
+    // claims are checked by jwtValidator, the same as decoders built by NimbusJwtDecoder
+    jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {});
+    NimbusJwtDecoder jwtDecoder = new NimbusJwtDecoder(jwtProcessor);
+    jwtDecoder.setJwtValidator(jwtValidator);
+    return jwtDecoder;
   }
 }
@@ -0,0 +1,81 @@
+package bio.terra.externalcreds.services;
+
+import bio.terra.externalcreds.dataAccess.DatabaseNotificationListener;
+import bio.terra.externalcreds.generated.model.Provider;
+import bio.terra.externalcreds.models.LinkedAccountWithFenceAccountKey;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+
+/**
+ * The same user's fence account key is requested many times a minute while workflows launch. This
+ * cache holds linked accounts and their fence account keys by user and provider so repeat requests
+ * do not read the database.
+ *
+ * <p>Entries never outlive the key's expiresAt. They are invalidated when a key is saved or the
+ * link is deleted on any instance (see DatabaseNotificationListener), and on this instance as
+ * soon as its own link deletion commits. The ttl bounds how long an entry can outlive a missed
+ * notification.
+ */
+@Component
+public class FenceAccountKeyCache {
+  private static final long MAXIMUM_SIZE = 10_000;
+  private static final Duration MAXIMUM_TTL = Duration.ofMinutes(5);
+
+  private record CacheKey(String userId, Provider provider) {}
+
+  private final Cache<CacheKey, LinkedAccountWithFenceAccountKey> cache =
+      CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE).expireAfterWrite(MAXIMUM_TTL).build();
+
+  public FenceAccountKeyCache(
+      DatabaseNotificationListener databaseNotificationListener) {
+    databaseNotificationListener.addKeySavedListener(this::invalidate);
+    databaseNotificationListener.addLinkedAccountDeletedListener(this::invalidate);
+  }
+
+  /**
+   * @param loader loads the linked account and its fence account key on a cache miss
+   * @return the cached or loaded linked account and fence account key
+   */
+  public Optional<LinkedAccountWithFenceAccountKey> get(
+      String userId,
+      Provider provider,
+      Supplier<Optional<LinkedAccountWithFenceAccountKey>> loader) {
+    var key = new CacheKey(userId, provider);
+    var cachedEntry = cache.getIfPresent(key);
+    if (cachedEntry != null && !isExpired(cachedEntry)) {
+      return Optional.of(cachedEntry);
+    }
+
+    var loadedEntry = loader.get();
+    if (loadedEntry.isEmpty() || isExpired(loadedEntry.get())) {
+      cache.invalidate(key);
+    } else {
+      cache.put(key, loadedEntry.get());
+    }
+    return loadedEntry;
+  }
+
+  public void invalidate(String userId, Provider provider) {
+    cache.invalidate(new CacheKey(userId, provider));
+  }
+
+  /**
+   * Keys are saved and links deleted rarely, so scanning for the linked account is cheaper than
+   * another index
+   */
+  public void invalidate(int linkedAccountId) {
+    cache
+        .asMap()
+        .values()
+        .removeIf(entry -> entry.getFenceAccountKey().getLinkedAccountId() == linkedAccountId);
+  }
+
+  private static boolean isExpired(LinkedAccountWithFenceAccountKey entry) {
+    return !entry.getFenceAccountKey().getExpiresAt().isAfter(Instant.now());
+  }
+}
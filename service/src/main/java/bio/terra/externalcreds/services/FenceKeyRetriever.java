@@ -3,10 +3,11 @@ package bio.terra.externalcreds.services;
 import bio.terra.externalcreds.ExternalCredsException;
 import bio.terra.externalcreds.auditLogging.AuditLogEvent;
 import bio.terra.externalcreds.config.ExternalCredsConfig;
+import bio.terra.externalcreds.config.ProviderProperties;
 import bio.terra.externalcreds.dataAccess.DistributedLockDAO;
+import bio.terra.externalcreds.dataAccess.DatabaseNotificationListener;
 import bio.terra.externalcreds.exception.DistributedLockException;
 import bio.terra.externalcreds.generated.model.Provider;
-import bio.terra.externalcreds.models.DistributedLock;
 import bio.terra.externalcreds.models.FenceAccountKey;
 import bio.terra.externalcreds.models.LinkedAccount;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -16,8 +17,11 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.HashSet;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.dao.DataAccessException;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
@@ -28,22 +32,31 @@ import reactor.core.publisher.Mono;
 @Slf4j
 @Service
 public class FenceKeyRetriever {
+  private static final String PRIVATE_KEY_ID_FIELD = "private_key_id";
+  // the lock wait already took the lock timeout, only wait briefly for a holder that is finishing
+  private static final Duration KEY_SAVED_WAIT = Duration.ofSeconds(2);
 
   private final FenceAccountKeyService fenceAccountKeyService;
   private final DistributedLockDAO distributedLockDAO;
+  private final DatabaseNotificationListener databaseNotificationListener;
   private final AccessTokenCacheService accessTokenCacheService;
+  private final ProviderWebClientCache providerWebClientCache;
   private final ExternalCredsConfig externalCredsConfig;
   private final ObjectMapper objectMapper;
 
   public FenceKeyRetriever(
       FenceAccountKeyService fenceAccountKeyService,
       DistributedLockDAO distributedLockDAO,
+      DatabaseNotificationListener databaseNotificationListener,
       AccessTokenCacheService accessTokenCacheService,
+      ProviderWebClientCache providerWebClientCache,
       ExternalCredsConfig externalCredsConfig,
       ObjectMapper objectMapper) {
     this.fenceAccountKeyService = fenceAccountKeyService;
     this.distributedLockDAO = distributedLockDAO;
+    this.databaseNotificationListener = databaseNotificationListener;
     this.accessTokenCacheService = accessTokenCacheService;
+    this.providerWebClientCache = providerWebClientCache;
     this.externalCredsConfig = externalCredsConfig;
     this.objectMapper = objectMapper;
   }
@@ -57,49 +70,105 @@ public class FenceKeyRetriever {
     return maybeKey.or(() -> retrieveNewKeyFromFence(linkedAccount));
   }
 
+  /**
+   * Replaces the linked account's fence account key if it is missing or expires before
+   * expirationCutoff, then revokes the replaced key in Fence. This runs in the background so that
+   * key requests rarely have to wait for Fence to create a key.
+   *
+   * @return boolean whether a new key was created
+   */
+  public boolean rotateFenceAccountKey(LinkedAccount linkedAccount, Instant expirationCutoff) {
+    var accessToken = getAccessToken(linkedAccount);
+    var rotation =
+        distributedLockDAO.runWithLock(
+            "createFenceKey-" + linkedAccount.getProvider(),
+            linkedAccount.getUserId(),
+            getLockTimeout(),
+            () -> {
+              var existingKey = fenceAccountKeyService.getFenceAccountKey(linkedAccount);
+              if (existingKey.isPresent()
+                  && existingKey.get().getExpiresAt().isAfter(expirationCutoff)) {
+                // replaced by a request or another instance since the linked account was listed
+                return new KeyRotation(false, Optional.empty());
+              }
+              getNewKey(linkedAccount, accessToken);
+              return new KeyRotation(true, existingKey);
+            });
+    // the new key is committed before the old one stops working
+    rotation.replacedKey().ifPresent(key -> revokeReplacedFenceAccountKey(linkedAccount, key));
+    return rotation.rotated();
+  }
+
+  private record KeyRotation(boolean rotated, Optional<FenceAccountKey> replacedKey) {}
+
   private Optional<FenceAccountKey> retrieveNewKeyFromFence(LinkedAccount linkedAccount) {
-    var newLock =
-        new DistributedLock.Builder()
-            .lockName("createFenceKey-" + linkedAccount.getProvider())
-            .userId(linkedAccount.getUserId())
-            .expiresAt(
-                Instant.now()
-                    .plus(externalCredsConfig.getDistributedLockConfiguration().getLockTimeout()))
-            .build();
-    Optional<DistributedLock> existingLock =
-        distributedLockDAO.getDistributedLock(newLock.getLockName(), linkedAccount.getUserId());
-    if (existingLock.isPresent()) {
-      // If the lock is present, another thread/instance is getting retrieving a key.
-      // Tigger a retry
-      log.info("Lock {} is present, waiting for it to expire.", newLock.getLockName());
-      throw new DistributedLockException(
-          String.format(
-              "Encountered lock %s for user %s", newLock.getLockName(), linkedAccount.getUserId()));
-    } else {
-      log.info(
-          "Retrieving new {} Fence Account Key for user {}",
-          linkedAccount.getProvider(),
-          linkedAccount.getUserId());
-      return obtainLockAndGetNewKey(newLock, linkedAccount);
+    if (linkedAccount.getId().isEmpty()) {
+      return retrieveNewKeyFromFenceWithLock(linkedAccount);
+    }
+    // subscribe before trying the lock so a key saved while waiting for it is not missed
+    var linkedAccountId = linkedAccount.getId().get();
+    var keySaved = databaseNotificationListener.subscribe(linkedAccountId);
+    try {
+      return retrieveNewKeyFromFenceWithLock(linkedAccount);
+    } catch (DistributedLockException e) {
+      // the lock holder is still retrieving the key, use it as soon as it is saved rather than
+      // waiting for the retry backoff
+      if (awaitKeySaved(keySaved)) {
+        var savedKey = fenceAccountKeyService.getFenceAccountKey(linkedAccount);
+        if (savedKey.isPresent()) {
+          return savedKey;
+        }
+      }
+      throw e;
+    } finally {
+      databaseNotificationListener.unsubscribe(linkedAccountId, keySaved);
+    }
+  }
+
+  private Optional<FenceAccountKey> retrieveNewKeyFromFenceWithLock(LinkedAccount linkedAccount) {
+    var accessToken = getAccessToken(linkedAccount);
+    // If another thread/instance is retrieving a key, this waits for it to finish and then uses
+    // its key. If the wait times out, a retry is triggered.
+    return distributedLockDAO.runWithLock(
+        "createFenceKey-" + linkedAccount.getProvider(),
+        linkedAccount.getUserId(),
+        getLockTimeout(),
+        () ->
+            fenceAccountKeyService
+                .getFenceAccountKey(linkedAccount)
+                .or(() -> Optional.of(getNewKey(linkedAccount, accessToken))));
+  }
+
+  private boolean awaitKeySaved(CompletableFuture<Void> keySaved) {
+    try {
+      keySaved.get(KEY_SAVED_WAIT.toMillis(), TimeUnit.MILLISECONDS);
+      return true;
+    } catch (TimeoutException | ExecutionException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
     }
   }
 
-  private Optional<FenceAccountKey> obtainLockAndGetNewKey(
-      DistributedLock lock, LinkedAccount linkedAccount) {
+  private Duration getLockTimeout() {
+    return externalCredsConfig.getDistributedLockConfiguration().getLockTimeout();
+  }
+
+  private FenceAccountKey getNewKey(LinkedAccount linkedAccount, String accessToken) {
+    log.info(
+        "Retrieving new {} Fence Account Key for user {}",
+        linkedAccount.getProvider(),
+        linkedAccount.getUserId());
     try {
-      // Create a lock and retrieve a key from the fence provider.
-      obtainLock(lock, linkedAccount);
-      var fenceAccountKey = retrieveFenceAccountKey(linkedAccount);
+      var fenceAccountKey = retrieveFenceAccountKey(linkedAccount, accessToken);
       fenceAccountKeyService.upsertFenceAccountKey(fenceAccountKey);
-      log.info("Removing lock {} for user {}", lock.getLockName(), linkedAccount.getUserId());
-      distributedLockDAO.deleteDistributedLock(lock.getLockName(), linkedAccount.getUserId());
-      return Optional.of(fenceAccountKey);
+      return fenceAccountKey;
     } catch (Exception e) {
       log.error(
           "Failed to retrieve a new Fence Account Key for user {} with error: {}",
           linkedAccount.getUserId(),
           e.getMessage());
-      distributedLockDAO.deleteDistributedLock(lock.getLockName(), linkedAccount.getUserId());
       throw new ExternalCredsException(
           "Failed to retrieve a new %s Fence Account Key for user %s with error %s"
               .formatted(linkedAccount.getProvider(), linkedAccount.getUserId(), e.getMessage()),
@@ -107,40 +176,18 @@ public class FenceKeyRetriever {
     }
   }
 
-  private void obtainLock(DistributedLock newLock, LinkedAccount linkedAccount)
-      throws DistributedLockException {
-    try {
-      log.info("Inserting lock {} for user {}", newLock.getLockName(), linkedAccount.getUserId());
-      distributedLockDAO.insertDistributedLock(newLock);
-    } catch (DataAccessException e) {
-      log.warn(
-          "Failed to insert lock %s, another thread is doing the same thing."
-              .formatted(newLock.getLockName()));
-      throw new DistributedLockException(
-          String.format(
-              "Encountered lock %s for user %s", newLock.getLockName(), linkedAccount.getUserId()));
-    }
-  }
-
-  private FenceAccountKey retrieveFenceAccountKey(LinkedAccount linkedAccount) {
+  private FenceAccountKey retrieveFenceAccountKey(LinkedAccount linkedAccount, String accessToken) {
     if (linkedAccount.getId().isEmpty()) {
       throw new IllegalArgumentException(
           "Cannot retrieved Fence Account Key for an unsaved Linked Account");
     }
     var providerProperties = externalCredsConfig.getProviderProperties(linkedAccount.getProvider());
-    var accessToken =
-        accessTokenCacheService.getLinkedAccountAccessToken(
-            linkedAccount,
-            new HashSet<>(providerProperties.getScopes()),
-            new AuditLogEvent.Builder());
-    var keyEndpoint = providerProperties.getKeyEndpoint();
-    if (keyEndpoint.isEmpty()) {
-      throw new IllegalArgumentException(
-          "Provider " + linkedAccount.getProvider() + " does not have a key endpoint");
-    }
+    var keyEndpoint = getKeyEndpoint(linkedAccount, providerProperties);
     WebClient.ResponseSpec response =
-        WebClient.create(keyEndpoint.get())
+        providerWebClientCache
+            .getWebClient(linkedAccount.getProvider())
             .post()
+            .uri(keyEndpoint)
             .header("Authorization", "Bearer " + accessToken)
             .retrieve();
     String responseBody =
@@ -157,6 +204,79 @@ public class FenceKeyRetriever {
         .build();
   }
 
+  /**
+   * Failures are only logged, the replaced key still expires at its expiresAt and the new key is
+   * already saved.
+   */
+  private void revokeReplacedFenceAccountKey(
+      LinkedAccount linkedAccount, FenceAccountKey fenceAccountKey) {
+    try {
+      revokeFenceAccountKey(linkedAccount, fenceAccountKey, getAccessToken(linkedAccount));
+    } catch (Exception e) {
+      log.warn(
+          "Failed to revoke replaced {} Fence Account Key for user {}, it expires at {}",
+          linkedAccount.getProvider(),
+          linkedAccount.getUserId(),
+          fenceAccountKey.getExpiresAt(),
+          e);
+    }
+  }
+
+  /**
+   * Asks Fence to delete fenceAccountKey. An error response from Fence is only logged.
+   *
+   * @param accessToken the linked account's access token for the provider
+   */
+  public void revokeFenceAccountKey(
+      LinkedAccount linkedAccount, FenceAccountKey fenceAccountKey, String accessToken) {
+    var providerProperties = externalCredsConfig.getProviderProperties(linkedAccount.getProvider());
+    var keyEndpoint = getKeyEndpoint(linkedAccount, providerProperties);
+    String privateKeyId;
+    try {
+      privateKeyId =
+          objectMapper.readTree(fenceAccountKey.getKeyJson()).get(PRIVATE_KEY_ID_FIELD).asText();
+    } catch (JsonProcessingException e) {
+      throw new ExternalCredsException(
+          "Failed to read key for key revocation for user " + linkedAccount.getUserId(), e);
+    }
+    String responseBody =
+        providerWebClientCache
+            .getWebClient(linkedAccount.getProvider())
+            .delete()
+            .uri(keyEndpoint + "/" + privateKeyId)
+            .header("Authorization", "Bearer " + accessToken)
+            .retrieve()
+            .onStatus(HttpStatusCode::isError, clientResponse -> Mono.empty())
+            .bodyToMono(String.class)
+            .block(Duration.of(11, ChronoUnit.SECONDS));
+    log.info(
+        "Key revocation request for user [{}], provider [{}] returned with the result: [{}]",
+        linkedAccount.getUserId(),
+        linkedAccount.getProvider().toString(),
+        responseBody);
+  }
+
+  /**
+   * Called before taking the key lock, so a refresh token exchange commits in its own transaction
+   * and is kept even if creating the key fails, and the lock's connection is not held while the
+   * provider is called.
+   */
+  private String getAccessToken(LinkedAccount linkedAccount) {
+    var providerProperties = externalCredsConfig.getProviderProperties(linkedAccount.getProvider());
+    return accessTokenCacheService.getLinkedAccountAccessToken(
+        linkedAccount, new HashSet<>(providerProperties.getScopes()), new AuditLogEvent.Builder());
+  }
+
+  private String getKeyEndpoint(
+      LinkedAccount linkedAccount, ProviderProperties providerProperties) {
+    return providerProperties
+        .getKeyEndpoint()
+        .orElseThrow(
+            () ->
+                new IllegalArgumentException(
+                    "Provider " + linkedAccount.getProvider() + " does not have a key endpoint"));
+  }
+
   private void validateResponse(String responseBody, Provider provider) {
     if (responseBody == null) {
       throw new ExternalCredsException(
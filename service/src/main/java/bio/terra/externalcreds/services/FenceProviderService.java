@@ -1,6 +1,7 @@
 package bio.terra.externalcreds.services;
 
 import bio.terra.common.exception.BadRequestException;
+import bio.terra.externalcreds.ExternalCredsException;
 import bio.terra.externalcreds.auditLogging.AuditLogEvent;
 import bio.terra.externalcreds.auditLogging.AuditLogEventType;
 import bio.terra.externalcreds.auditLogging.AuditLogger;
@@ -8,9 +9,22 @@ import bio.terra.externalcreds.config.ExternalCredsConfig;
 import bio.terra.externalcreds.generated.model.Provider;
 import bio.terra.externalcreds.models.FenceAccountKey;
 import bio.terra.externalcreds.models.LinkedAccount;
+import bio.terra.externalcreds.models.LinkedAccountWithFenceAccountKey;
+import bio.terra.externalcreds.util.ProviderUtils;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
 import org.springframework.stereotype.Service;
@@ -19,7 +33,11 @@ import org.springframework.stereotype.Service;
 @Slf4j
 public class FenceProviderService extends ProviderService {
 
-  private final FenceKeyRetriever fenceKeyRetriever;
+  private final FenceAccountKeyCache fenceAccountKeyCache;
+  private final AccessTokenCacheService accessTokenCacheService;
+  private final ExecutorService keyRotationExecutor;
+
+  private static final int EXPIRING_FENCE_ACCOUNT_KEY_PAGE_SIZE = 100;
 
   public FenceProviderService(
       ExternalCredsConfig externalCredsConfig,
@@ -30,7 +48,10 @@ public class FenceProviderService extends ProviderService {
       AuditLogger auditLogger,
       ObjectMapper objectMapper,
       FenceAccountKeyService fenceAccountKeyService,
-      FenceKeyRetriever fenceKeyRetriever) {
+      FenceKeyRetriever fenceKeyRetriever,
+      FenceAccountKeyCache fenceAccountKeyCache,
+      AccessTokenCacheService accessTokenCacheService,
+      ProviderWebClientCache providerWebClientCache) {
     super(
         externalCredsConfig,
         providerOAuthClientCache,
@@ -38,15 +59,131 @@ public class FenceProviderService extends ProviderService {
         oAuth2Service,
         linkedAccountService,
         fenceAccountKeyService,
+        fenceKeyRetriever,
         auditLogger,
-        objectMapper);
-    this.fenceKeyRetriever = fenceKeyRetriever;
+        objectMapper,
+        providerWebClientCache);
+    this.fenceAccountKeyCache = fenceAccountKeyCache;
+    this.accessTokenCacheService = accessTokenCacheService;
+    this.keyRotationExecutor =
+        Executors.newFixedThreadPool(
+            Math.max(1, externalCredsConfig.getFenceAccountKeyRotationParallelism()),
+            new ThreadFactoryBuilder()
+                .setNameFormat("fence-key-rotation-%d")
+                .setDaemon(true)
+                .build());
   }
 
   public Optional<FenceAccountKey> getFenceAccountKey(LinkedAccount linkedAccount) {
     return fenceKeyRetriever.getOrCreateFenceAccountKey(linkedAccount);
   }
 
+  public Optional<LinkedAccountWithFenceAccountKey> getLinkedAccountWithFenceAccountKey(
+      String userId, Provider provider) {
+    return fenceAccountKeyCache.get(
+        userId,
+        provider,
+        () ->
+            linkedAccountService
+                .getLinkedAccount(userId, provider)
+                .flatMap(
+                    linkedAccount ->
+                        getFenceAccountKey(linkedAccount)
+                            .map(
+                                fenceAccountKey ->
+                                    new LinkedAccountWithFenceAccountKey.Builder()
+                                        .linkedAccount(linkedAccount)
+                                        .fenceAccountKey(fenceAccountKey)
+                                        .build())));
+  }
+
+  /**
+   * Creates fence account keys for linked accounts that have none and replaces keys that expire
+   * within the rotation window, a page of linked accounts at a time with up to
+   * externalCredsConfig.getFenceAccountKeyRotationParallelism() keys created concurrently. A
+   * getFenceAccountKeyRotationMaxPerRun() of zero or less turns rotation off.
+   *
+   * @return the number of keys created
+   */
+  public int rotateExpiringFenceAccountKeys() {
+    var maxRotations = externalCredsConfig.getFenceAccountKeyRotationMaxPerRun();
+    if (maxRotations <= 0) {
+      // it would otherwise be the query's limit, where 0 still runs the query and less is an error
+      return 0;
+    }
+    var expirationCutoff =
+        Instant.now().plus(externalCredsConfig.getFenceAccountKeyRotationWindow());
+
+    var rotatedCount = new AtomicInteger();
+    var attemptedCount = 0;
+    var afterId = 0;
+    List<LinkedAccount> linkedAccounts;
+    do {
+      linkedAccounts =
+          linkedAccountService.getLinkedAccountsWithExpiringFenceAccountKeys(
+              ProviderUtils.getFenceProviders(),
+              Timestamp.from(expirationCutoff),
+              afterId,
+              Math.min(EXPIRING_FENCE_ACCOUNT_KEY_PAGE_SIZE, maxRotations - attemptedCount));
+      var futures =
+          linkedAccounts.stream()
+              .map(
+                  linkedAccount ->
+                      keyRotationExecutor.submit(
+                          () ->
+                              rotateFenceAccountKey(
+                                  linkedAccount, expirationCutoff, rotatedCount)))
+              .toList();
+      futures.forEach(FenceProviderService::await);
+
+      attemptedCount += linkedAccounts.size();
+      if (!linkedAccounts.isEmpty()) {
+        afterId = linkedAccounts.get(linkedAccounts.size() - 1).getId().orElseThrow();
+      }
+    } while (linkedAccounts.size() == EXPIRING_FENCE_ACCOUNT_KEY_PAGE_SIZE
+        && attemptedCount < maxRotations);
+
+    return rotatedCount.get();
+  }
+
+  private void rotateFenceAccountKey(
+      LinkedAccount linkedAccount, Instant expirationCutoff, AtomicInteger rotatedCount) {
+    try {
+      if (fenceKeyRetriever.rotateFenceAccountKey(linkedAccount, expirationCutoff)) {
+        rotatedCount.incrementAndGet();
+      }
+    } catch (Exception e) {
+      log.warn(
+          "Failed to rotate fence account key for linked account {}, will try again at the next"
+              + " interval",
+          linkedAccount.getId().orElseThrow(),
+          e);
+    }
+  }
+
+  private static void await(Future<?> future) {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExternalCredsException(e);
+    } catch (ExecutionException e) {
+      throw new ExternalCredsException(e.getCause());
+    }
+  }
+
+  @PreDestroy
+  void shutdownKeyRotationExecutor() {
+    keyRotationExecutor.shutdown();
+    try {
+      if (!keyRotationExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+        log.warn("fence key rotation executor did not terminate");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   public LinkedAccount createLink(
       Provider provider,
       String userId,
@@ -68,6 +205,8 @@ public class FenceProviderService extends ProviderService {
                   providerClient)
               .getLeft();
       var linkedAccount = linkedAccountService.upsertLinkedAccount(account);
+      // a relink keeps the linked account id, drop the access token from the previous link
+      accessTokenCacheService.invalidateLocalCacheEntry(linkedAccount.getId().orElseThrow());
       logLinkCreation(Optional.of(linkedAccount), auditLogEventBuilder);
       return linkedAccount;
     } catch (OAuth2AuthorizationException oauthEx) {
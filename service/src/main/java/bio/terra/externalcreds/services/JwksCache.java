@@ -0,0 +1,118 @@
+package bio.terra.externalcreds.services;
+
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import bio.terra.externalcreds.config.JwksCacheConfiguration;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import java.io.IOException;
+import java.net.URI;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the parsed key set for each jwks uri, whether it comes from a jku header or an issuer's
+ * configuration, so all decoders verifying signatures against the same key set share one copy.
+ *
+ * <p>Key sets are reloaded in the background once they are older than the configured refresh
+ * interval, a failed reload keeps the current key set. A jwt signed with a key that is not in the
+ * cached set triggers an immediate reload, at most once per minimum refresh interval per key set,
+ * so a newly rotated signing key is recognized without waiting for the background reload.
+ */
+@Component
+@Slf4j
+public class JwksCache {
+  // same as the nimbus RemoteJWKSet default
+  private static final int SIZE_LIMIT_BYTES = 50 * 1024;
+
+  private record CachedJwkSet(JWKSet jwkSet, Instant loadedAt) {}
+
+  private final JwksCacheConfiguration jwksCacheConfig;
+  private final Map<URI, CachedJwkSet> jwkSets = new ConcurrentHashMap<>();
+  private final Map<URI, Instant> lastLoadAttempts = new ConcurrentHashMap<>();
+
+  public JwksCache(ExternalCredsConfig externalCredsConfig) {
+    this.jwksCacheConfig =
+        Optional.ofNullable(externalCredsConfig.getJwksCache())
+            .orElseGet(JwksCacheConfiguration::create);
+  }
+
+  /** @return a JWKSource selecting keys from the cached key set at jwksUri */
+  public JWKSource<SecurityContext> getJwkSource(URI jwksUri) {
+    return (jwkSelector, context) -> {
+      var jwks = jwkSelector.select(getJwkSet(jwksUri));
+      if (jwks.isEmpty() && tryStartReload(jwksUri)) {
+        log.info("Reloading key set {} for a jwt signed with an unknown key", jwksUri);
+        jwks = jwkSelector.select(load(jwksUri));
+      }
+      return jwks;
+    };
+  }
+
+  JWKSet getJwkSet(URI jwksUri) throws KeySourceException {
+    var cachedJwkSet = jwkSets.get(jwksUri);
+    if (cachedJwkSet != null) {
+      return cachedJwkSet.jwkSet();
+    }
+    lastLoadAttempts.put(jwksUri, Instant.now());
+    return load(jwksUri);
+  }
+
+  @Scheduled(fixedRateString = "1", timeUnit = TimeUnit.MINUTES)
+  public void reloadStaleKeySets() {
+    var staleBefore = Instant.now().minus(jwksCacheConfig.getRefreshInterval());
+    jwkSets.forEach(
+        (jwksUri, cachedJwkSet) -> {
+          if (cachedJwkSet.loadedAt().isBefore(staleBefore)) {
+            lastLoadAttempts.put(jwksUri, Instant.now());
+            try {
+              load(jwksUri);
+            } catch (KeySourceException e) {
+              log.warn("Failed to reload key set {}, keeping the current one", jwksUri, e);
+            }
+          }
+        });
+  }
+
+  private boolean tryStartReload(URI jwksUri) {
+    var now = Instant.now();
+    var reloadAllowed = new AtomicBoolean();
+    lastLoadAttempts.compute(
+        jwksUri,
+        (uri, lastLoadAttempt) -> {
+          if (lastLoadAttempt != null
+              && lastLoadAttempt.plus(jwksCacheConfig.getMinRefreshInterval()).isAfter(now)) {
+            return lastLoadAttempt;
+          }
+          reloadAllowed.set(true);
+          return now;
+        });
+    return reloadAllowed.get();
+  }
+
+  private JWKSet load(URI jwksUri) throws KeySourceException {
+    JWKSet jwkSet;
+    try {
+      jwkSet =
+          JWKSet.load(
+              jwksUri.toURL(),
+              (int) jwksCacheConfig.getConnectTimeout().toMillis(),
+              (int) jwksCacheConfig.getReadTimeout().toMillis(),
+              SIZE_LIMIT_BYTES);
+    } catch (IOException | ParseException e) {
+      throw new KeySourceException(
+          String.format("Couldn't retrieve JWK set from %s: %s", jwksUri, e.getMessage()), e);
+    }
+    jwkSets.put(jwksUri, new CachedJwkSet(jwkSet, Instant.now()));
+    return jwkSet;
+  }
+}
@@ -1,6 +1,5 @@
 package bio.terra.externalcreds.services;
 
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
@@ -8,39 +7,42 @@ import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.oauth2.jwt.JwtDecoder;
-import org.springframework.security.oauth2.jwt.JwtDecoders;
 import org.springframework.stereotype.Component;
 
 /**
- * Creating a jwt decoder requires external calls to get public keys. That information almost never
- * changes and we don't want to hammer that api. Therefore this cache.
+ * Creating a jwt decoder for an issuer requires an external call to get the issuer's configuration.
+ * That information almost never changes and we don't want to hammer that api. Therefore this
+ * cache.
  *
- * <p>The cache is reset every 6 hours to detect infrequent changes.
+ * <p>The public keys decoders verify signatures with are held and refreshed by {@link JwksCache},
+ * so key rotation does not require new decoders. Decoders from issuers are reset every 6 hours to
+ * detect an infrequent change of the issuer's jwks_uri, which is only read when the decoder is
+ * created.
  */
 @Component
 @Slf4j
 public class JwtDecoderCache {
+  private final JwksCache jwksCache;
+
+  public JwtDecoderCache(JwksCache jwksCache) {
+    this.jwksCache = jwksCache;
+  }
+
   @Cacheable(cacheNames = "jwtDecodersFromIssuer")
   public JwtDecoder fromIssuer(String issuer) {
     log.info("Loading JwtDecoder from issuer {}", issuer);
-    return JwtDecoders.fromIssuerLocation(issuer);
+    return ExternalCredsJwtDecoders.fromIssuer(issuer, jwksCache);
   }
 
   @Cacheable(cacheNames = "jwtDecodersFromJku")
   public JwtDecoder fromJku(URI jku) {
-    try {
-      log.info("Loading JwtDecoder from jku {}", jku);
-      return ExternalCredsJwtDecoders.fromJku(jku);
-    } catch (MalformedURLException e) {
-      throw new InvalidJwtException(e);
-    }
+    log.info("Loading JwtDecoder from jku {}", jku);
+    return ExternalCredsJwtDecoders.fromJku(jku, jwksCache);
   }
 
   @Scheduled(fixedRateString = "6", timeUnit = TimeUnit.HOURS)
-  @CacheEvict(
-      allEntries = true,
-      cacheNames = {"jwtDecodersFromIssuer", "jwtDecodersFromJku"})
-  public void resetCache() {
-    log.info("JwtDecoderCache reset");
+  @CacheEvict(allEntries = true, cacheNames = "jwtDecodersFromIssuer")
+  public void resetIssuerCache() {
+    log.info("JwtDecoderCache issuer decoders reset");
   }
 }
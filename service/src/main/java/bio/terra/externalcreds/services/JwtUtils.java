@@ -27,7 +27,11 @@ import org.springframework.security.oauth2.jwt.JwtException;
 import org.springframework.stereotype.Service;
 
 @Service
-public record JwtUtils(ExternalCredsConfig externalCredsConfig, JwtDecoderCache jwtDecoderCache) {
+public record JwtUtils(
+    ExternalCredsConfig externalCredsConfig,
+    JwtDecoderCache jwtDecoderCache,
+    VerifiedJwtCache verifiedJwtCache,
+    VisaVerificationExecutor visaVerificationExecutor) {
 
   public static final String PASSPORT_JWT_V11_CLAIM = "passport_jwt_v11";
   public static final String GA4GH_PASSPORT_V1_CLAIM = "ga4gh_passport_v1";
@@ -61,7 +65,8 @@ public record JwtUtils(ExternalCredsConfig externalCredsConfig, JwtDecoderCache
             passportJwt.getClaimAsStringList(GA4GH_PASSPORT_V1_CLAIM), Collections.emptyList());
 
     var visas =
-        visaJwtStrings.stream().map(this::decodeAndValidateJwt).map(JwtUtils::buildVisa).toList();
+        visaVerificationExecutor.verifyAll(
+            visaJwtStrings, visaJwtString -> buildVisa(decodeAndValidateJwt(visaJwtString)));
 
     return new PassportWithVisas.Builder()
         .passport(buildPassport(passportJwt))
@@ -132,6 +137,10 @@ public record JwtUtils(ExternalCredsConfig externalCredsConfig, JwtDecoderCache
 
   @VisibleForTesting
   Jwt decodeAndValidateJwt(String jwtString) {
+    return verifiedJwtCache.get(jwtString, this::decodeAndValidateUncachedJwt);
+  }
+
+  private Jwt decodeAndValidateUncachedJwt(String jwtString) {
     try {
       // first we need to get the issuer from the jwt, the issuer is needed to validate
       var jwt = JWTParser.parse(jwtString);
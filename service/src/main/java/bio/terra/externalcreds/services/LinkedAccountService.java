@@ -10,15 +10,20 @@ import bio.terra.externalcreds.generated.model.Provider;
 import bio.terra.externalcreds.models.AuthorizationChangeEvent;
 import bio.terra.externalcreds.models.GA4GHVisa;
 import bio.terra.externalcreds.models.LinkedAccount;
+import bio.terra.externalcreds.models.LinkedAccountWithAccessTokenCacheEntry;
 import bio.terra.externalcreds.models.LinkedAccountWithPassportAndVisas;
 import bio.terra.externalcreds.models.OAuth2State;
 import bio.terra.externalcreds.visaComparators.VisaComparator;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @Service
 @Slf4j
@@ -30,6 +35,7 @@ public class LinkedAccountService {
   private final Collection<VisaComparator> visaComparators;
   private final EventPublisher eventPublisher;
   private final OAuth2StateDAO oAuth2StateDAO;
+  private final FenceAccountKeyCache fenceAccountKeyCache;
 
   public LinkedAccountService(
       LinkedAccountDAO linkedAccountDAO,
@@ -37,13 +43,15 @@ public class LinkedAccountService {
       GA4GHVisaDAO ga4ghVisaDAO,
       Collection<VisaComparator> visaComparators,
       EventPublisher eventPublisher,
-      OAuth2StateDAO oAuth2StateDAO) {
+      OAuth2StateDAO oAuth2StateDAO,
+      FenceAccountKeyCache fenceAccountKeyCache) {
     this.linkedAccountDAO = linkedAccountDAO;
     this.ga4ghPassportDAO = ga4ghPassportDAO;
     this.ga4ghVisaDAO = ga4ghVisaDAO;
     this.visaComparators = visaComparators;
     this.eventPublisher = eventPublisher;
     this.oAuth2StateDAO = oAuth2StateDAO;
+    this.fenceAccountKeyCache = fenceAccountKeyCache;
   }
 
   @ReadTransaction
@@ -56,6 +64,13 @@ public class LinkedAccountService {
     return linkedAccountDAO.getLinkedAccount(userId, provider);
   }
 
+  // a single statement, so it is left to autocommit rather than paying for a transaction on the
+  // access token request path
+  public Optional<LinkedAccountWithAccessTokenCacheEntry> getLinkedAccountWithAccessTokenCacheEntry(
+      String userId, Provider provider) {
+    return linkedAccountDAO.getLinkedAccountWithAccessTokenCacheEntry(userId, provider);
+  }
+
   @WriteTransaction
   public LinkedAccountWithPassportAndVisas upsertLinkedAccountWithPassportAndVisas(
       LinkedAccountWithPassportAndVisas linkedAccountWithPassportAndVisas) {
@@ -64,12 +79,10 @@ public class LinkedAccountService {
         ga4ghVisaDAO.listVisas(linkedAccount.getUserId(), linkedAccount.getProvider());
     var savedLinkedAccount = linkedAccountDAO.upsertLinkedAccount(linkedAccount);
 
-    // clear out any passport and visas that may exist and save the new one
-    ga4ghPassportDAO.deletePassport(savedLinkedAccount.getId().orElseThrow());
-
     var savedLinkedAccountWithPassportAndVisas =
         savePassportAndVisasIfPresent(
-            linkedAccountWithPassportAndVisas.withLinkedAccount(savedLinkedAccount));
+            linkedAccountWithPassportAndVisas.withLinkedAccount(savedLinkedAccount),
+            existingVisas);
 
     if (authorizationsDiffer(existingVisas, savedLinkedAccountWithPassportAndVisas.getVisas())) {
       eventPublisher.publishAuthorizationChangeEvent(
@@ -103,6 +116,9 @@ public class LinkedAccountService {
   public boolean deleteLinkedAccount(String userId, Provider provider) {
     var existingVisas = ga4ghVisaDAO.listVisas(userId, provider);
     var accountExisted = linkedAccountDAO.deleteLinkedAccountIfExists(userId, provider);
+    // invalidating before commit would let a concurrent request cache the link again from the
+    // not yet deleted row, other instances are notified by the delete itself
+    runAfterCommit(() -> fenceAccountKeyCache.invalidate(userId, provider));
     if (!existingVisas.isEmpty()) {
       eventPublisher.publishAuthorizationChangeEvent(
           new AuthorizationChangeEvent.Builder().provider(provider).userId(userId).build());
@@ -111,31 +127,119 @@ public class LinkedAccountService {
   }
 
   @ReadTransaction
-  public List<LinkedAccount> getExpiringLinkedAccounts(Timestamp expirationCutoff) {
-    return linkedAccountDAO.getExpiringLinkedAccounts(expirationCutoff);
+  public List<LinkedAccount> getExpiringLinkedAccounts(
+      Timestamp expirationCutoff, int afterId, int limit) {
+    return linkedAccountDAO.getExpiringLinkedAccounts(expirationCutoff, afterId, limit);
+  }
+
+  @ReadTransaction
+  public List<LinkedAccount> getLinkedAccountsWithExpiringReadAccessTokens(
+      Timestamp expirationCutoff, Timestamp readSince, int afterId, int limit) {
+    return linkedAccountDAO.getLinkedAccountsWithExpiringReadAccessTokens(
+        expirationCutoff, readSince, afterId, limit);
+  }
+
+  @ReadTransaction
+  public List<LinkedAccount> getLinkedAccountsWithExpiringFenceAccountKeys(
+      Collection<Provider> providers, Timestamp expirationCutoff, int afterId, int limit) {
+    return linkedAccountDAO.getLinkedAccountsWithExpiringFenceAccountKeys(
+        providers, expirationCutoff, afterId, limit);
+  }
+
+  private static void runAfterCommit(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      action.run();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            action.run();
+          }
+        });
   }
 
+  /**
+   * Saves the passport and visas, changing only what differs from what is already stored. The
+   * passport is updated in place. An existing visa with the same jwt as a new visa is kept as is
+   * (other than last validated), an existing visa with the same authorizations but a different jwt
+   * is updated in place. Remaining new visas are inserted and remaining existing visas deleted.
+   */
   private LinkedAccountWithPassportAndVisas savePassportAndVisasIfPresent(
-      LinkedAccountWithPassportAndVisas linkedAccountWithPassportAndVisas) {
-    if (linkedAccountWithPassportAndVisas.getPassport().isPresent()) {
-
-      var savedPassport =
-          ga4ghPassportDAO.insertPassport(
-              linkedAccountWithPassportAndVisas
-                  .getPassport()
-                  .get()
-                  .withLinkedAccountId(
-                      linkedAccountWithPassportAndVisas.getLinkedAccount().getId()));
-
-      var savedVisas =
-          linkedAccountWithPassportAndVisas.getVisas().stream()
-              .map(v -> ga4ghVisaDAO.insertVisa(v.withPassportId(savedPassport.getId())))
-              .toList();
-
-      return linkedAccountWithPassportAndVisas.withPassport(savedPassport).withVisas(savedVisas);
-    } else {
+      LinkedAccountWithPassportAndVisas linkedAccountWithPassportAndVisas,
+      List<GA4GHVisa> existingVisas) {
+    var linkedAccountId = linkedAccountWithPassportAndVisas.getLinkedAccount().getId();
+    if (linkedAccountWithPassportAndVisas.getPassport().isEmpty()) {
+      ga4ghPassportDAO.deletePassport(linkedAccountId.orElseThrow());
       return linkedAccountWithPassportAndVisas;
     }
+
+    var savedPassport =
+        ga4ghPassportDAO.upsertPassport(
+            linkedAccountWithPassportAndVisas
+                .getPassport()
+                .get()
+                .withLinkedAccountId(linkedAccountId));
+
+    var newVisas =
+        linkedAccountWithPassportAndVisas.getVisas().stream()
+            .map(v -> v.withPassportId(savedPassport.getId()))
+            .toList();
+    var unmatchedExistingVisas = new ArrayList<>(existingVisas);
+    var savedVisas = new GA4GHVisa[newVisas.size()];
+    var visasToUpdate = new ArrayList<GA4GHVisa>();
+
+    // first keep existing visas that have not changed at all
+    for (var i = 0; i < newVisas.size(); i++) {
+      var newVisa = newVisas.get(i);
+      var sameJwtVisa =
+          unmatchedExistingVisas.stream()
+              .filter(existingVisa -> existingVisa.getJwt().equals(newVisa.getJwt()))
+              .findFirst();
+      if (sameJwtVisa.isPresent()) {
+        unmatchedExistingVisas.remove(sameJwtVisa.get());
+        var keptVisa = newVisa.withId(sameJwtVisa.get().getId());
+        if (!keptVisa.equals(sameJwtVisa.get())) {
+          visasToUpdate.add(keptVisa);
+        }
+        savedVisas[i] = keptVisa;
+      }
+    }
+
+    // then update in place existing visas with the same authorizations
+    var visasToInsert = new ArrayList<GA4GHVisa>();
+    var visasToInsertIndexes = new ArrayList<Integer>();
+    for (var i = 0; i < newVisas.size(); i++) {
+      if (savedVisas[i] != null) {
+        continue;
+      }
+      var newVisa = newVisas.get(i);
+      var sameAuthorizationVisa = findMatchingVisa(newVisa, unmatchedExistingVisas);
+      if (sameAuthorizationVisa.isPresent()) {
+        unmatchedExistingVisas.remove(sameAuthorizationVisa.get());
+        var updatedVisa = newVisa.withId(sameAuthorizationVisa.get().getId());
+        visasToUpdate.add(updatedVisa);
+        savedVisas[i] = updatedVisa;
+      } else {
+        visasToInsert.add(newVisa);
+        visasToInsertIndexes.add(i);
+      }
+    }
+
+    if (!unmatchedExistingVisas.isEmpty()) {
+      ga4ghVisaDAO.deleteVisas(
+          unmatchedExistingVisas.stream().map(v -> v.getId().orElseThrow()).toList());
+    }
+    ga4ghVisaDAO.updateVisas(visasToUpdate);
+    var insertedVisas = ga4ghVisaDAO.insertVisas(visasToInsert);
+    for (var i = 0; i < insertedVisas.size(); i++) {
+      savedVisas[visasToInsertIndexes.get(i)] = insertedVisas.get(i);
+    }
+
+    return linkedAccountWithPassportAndVisas
+        .withPassport(savedPassport)
+        .withVisas(Arrays.asList(savedVisas));
   }
 
   private boolean authorizationsDiffer(
@@ -1,12 +1,28 @@
 package bio.terra.externalcreds.services;
 
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import jakarta.annotation.PreDestroy;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.FormHttpMessageConverter;
 import org.springframework.security.oauth2.client.endpoint.DefaultAuthorizationCodeTokenResponseClient;
 import org.springframework.security.oauth2.client.endpoint.DefaultRefreshTokenTokenResponseClient;
 import org.springframework.security.oauth2.client.endpoint.OAuth2AuthorizationCodeGrantRequest;
 import org.springframework.security.oauth2.client.endpoint.OAuth2RefreshTokenGrantRequest;
+import org.springframework.security.oauth2.client.http.OAuth2ErrorResponseErrorHandler;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import org.springframework.security.oauth2.client.userinfo.DefaultOAuth2UserService;
 import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
@@ -16,8 +32,10 @@ import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenRespon
 import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationExchange;
 import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
 import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationResponse;
+import org.springframework.security.oauth2.core.http.converter.OAuth2AccessTokenResponseHttpMessageConverter;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
 
 /**
  * Service that encapsulates all OAuth2 features need by ECM. General flow:
@@ -33,6 +51,82 @@ import org.springframework.stereotype.Service;
  */
 @Service
 public class OAuth2Service {
+  private final ExternalCredsConfig externalCredsConfig;
+  private final MeterRegistry meterRegistry;
+  // created on first use and set once the clients below use it, so callers that find it set do not
+  // need to lock
+  private volatile CloseableHttpClient httpClient;
+  private final DefaultAuthorizationCodeTokenResponseClient authorizationCodeTokenResponseClient =
+      new DefaultAuthorizationCodeTokenResponseClient();
+  private final DefaultRefreshTokenTokenResponseClient refreshTokenTokenResponseClient =
+      new DefaultRefreshTokenTokenResponseClient();
+  private final DefaultOAuth2UserService oAuth2UserService = new DefaultOAuth2UserService();
+
+  public OAuth2Service(ExternalCredsConfig externalCredsConfig, MeterRegistry meterRegistry) {
+    this.externalCredsConfig = externalCredsConfig;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * The token and user info clients are thread safe and share one pooled http client, so requests
+   * to the same provider reuse connections instead of opening a new one each time. The pool is
+   * created on first use, so an instance that never calls a provider does not open one.
+   */
+  private void initializeHttpClient() {
+    if (httpClient == null) {
+      synchronized (this) {
+        if (httpClient == null) {
+          httpClient = createHttpClient();
+        }
+      }
+    }
+  }
+
+  private CloseableHttpClient createHttpClient() {
+    var httpClientConfig = externalCredsConfig.getOauth2HttpClient();
+    var connectionManager =
+        PoolingHttpClientConnectionManagerBuilder.create()
+            .setMaxConnTotal(httpClientConfig.getMaxConnections())
+            .setMaxConnPerRoute(httpClientConfig.getMaxConnections())
+            .setDefaultConnectionConfig(
+                ConnectionConfig.custom()
+                    .setConnectTimeout(Timeout.of(httpClientConfig.getConnectTimeout()))
+                    .setTimeToLive(TimeValue.of(httpClientConfig.getMaxLifeTime()))
+                    .build())
+            .build();
+    new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "oauth2")
+        .bindTo(meterRegistry);
+    var pooledHttpClient =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(
+                RequestConfig.custom()
+                    .setConnectionRequestTimeout(
+                        Timeout.of(httpClientConfig.getPendingAcquireTimeout()))
+                    .setResponseTimeout(Timeout.of(httpClientConfig.getResponseTimeout()))
+                    .build())
+            .evictExpiredConnections()
+            .evictIdleConnections(TimeValue.of(httpClientConfig.getMaxIdleTime()))
+            .build();
+    var requestFactory = new HttpComponentsClientHttpRequestFactory(pooledHttpClient);
+
+    // same message converters and error handling as the clients' default RestTemplates
+    var tokenRestTemplate =
+        new RestTemplate(
+            List.of(
+                new FormHttpMessageConverter(),
+                new OAuth2AccessTokenResponseHttpMessageConverter()));
+    tokenRestTemplate.setErrorHandler(new OAuth2ErrorResponseErrorHandler());
+    tokenRestTemplate.setRequestFactory(requestFactory);
+    authorizationCodeTokenResponseClient.setRestOperations(tokenRestTemplate);
+    refreshTokenTokenResponseClient.setRestOperations(tokenRestTemplate);
+
+    var userInfoRestTemplate = new RestTemplate(requestFactory);
+    userInfoRestTemplate.setErrorHandler(new OAuth2ErrorResponseErrorHandler());
+    oAuth2UserService.setRestOperations(userInfoRestTemplate);
+    return pooledHttpClient;
+  }
+
   /**
    * Construct authorization uri user should visit to authenticate
    *
@@ -100,12 +194,12 @@ public class OAuth2Service {
             .state(state)
             .build();
 
-    var tokenResponseClient = new DefaultAuthorizationCodeTokenResponseClient();
     var codeGrantRequest =
         new OAuth2AuthorizationCodeGrantRequest(
             providerClient, new OAuth2AuthorizationExchange(authRequest, authResponse));
 
-    return tokenResponseClient.getTokenResponse(codeGrantRequest);
+    initializeHttpClient();
+    return authorizationCodeTokenResponseClient.getTokenResponse(codeGrantRequest);
   }
 
   /**
@@ -118,22 +212,33 @@ public class OAuth2Service {
    */
   public OAuth2AccessTokenResponse authorizeWithRefreshToken(
       ClientRegistration providerClient, OAuth2RefreshToken refreshToken, Set<String> scopes) {
+    initializeHttpClient();
+    return refreshTokenTokenResponseClient.getTokenResponse(
+        createRefreshTokenGrantRequest(providerClient, refreshToken, scopes));
+  }
+
+  static OAuth2RefreshTokenGrantRequest createRefreshTokenGrantRequest(
+      ClientRegistration providerClient, OAuth2RefreshToken refreshToken, Set<String> scopes) {
     // the OAuth2RefreshTokenGrantRequest requires an access token to be specified but
     // it does not have to be a valid one so create a dummy
     var dummyAccessToken =
         new OAuth2AccessToken(
             OAuth2AccessToken.TokenType.BEARER, "dummy", Instant.EPOCH, Instant.now());
 
-    var refreshTokenGrantRequest =
-        new OAuth2RefreshTokenGrantRequest(providerClient, dummyAccessToken, refreshToken, scopes);
-
-    var refreshTokenTokenResponseClient = new DefaultRefreshTokenTokenResponseClient();
-
-    return refreshTokenTokenResponseClient.getTokenResponse(refreshTokenGrantRequest);
+    return new OAuth2RefreshTokenGrantRequest(
+        providerClient, dummyAccessToken, refreshToken, scopes);
   }
 
   public OAuth2User getUserInfo(ClientRegistration providerClient, OAuth2AccessToken accessToken) {
+    initializeHttpClient();
     var userRequest = new OAuth2UserRequest(providerClient, accessToken);
-    return new DefaultOAuth2UserService().loadUser(userRequest);
+    return oAuth2UserService.loadUser(userRequest);
+  }
+
+  @PreDestroy
+  synchronized void closeHttpClient() {
+    if (httpClient != null) {
+      httpClient.close(CloseMode.GRACEFUL);
+    }
   }
 }
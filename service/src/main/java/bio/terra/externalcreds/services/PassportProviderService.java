@@ -11,25 +11,34 @@ import bio.terra.externalcreds.generated.model.Provider;
 import bio.terra.externalcreds.models.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
 import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 @Service
 @Slf4j
 public class PassportProviderService extends ProviderService {
   private final PassportService passportService;
   private final JwtUtils jwtUtils;
+  private final PassportRefreshExecutor passportRefreshExecutor;
+  private final ReactiveOAuth2Service reactiveOAuth2Service;
+
+  private static final Duration VISA_VALIDATION_TIMEOUT = Duration.of(1000, ChronoUnit.MILLIS);
+  private static final int VISA_LAST_VALIDATED_CHUNK_SIZE = 500;
+  private static final int EXPIRING_LINKED_ACCOUNT_PAGE_SIZE = 500;
 
   public PassportProviderService(
       ExternalCredsConfig externalCredsConfig,
@@ -38,10 +47,14 @@ public class PassportProviderService extends ProviderService {
       OAuth2Service oAuth2Service,
       LinkedAccountService linkedAccountService,
       FenceAccountKeyService fenceAccountKeyService,
+      FenceKeyRetriever fenceKeyRetriever,
       PassportService passportService,
       JwtUtils jwtUtils,
       AuditLogger auditLogger,
-      ObjectMapper objectMapper) {
+      ObjectMapper objectMapper,
+      PassportRefreshExecutor passportRefreshExecutor,
+      ReactiveOAuth2Service reactiveOAuth2Service,
+      ProviderWebClientCache providerWebClientCache) {
     super(
         externalCredsConfig,
         providerOAuthClientCache,
@@ -49,10 +62,14 @@ public class PassportProviderService extends ProviderService {
         oAuth2Service,
         linkedAccountService,
         fenceAccountKeyService,
+        fenceKeyRetriever,
         auditLogger,
-        objectMapper);
+        objectMapper,
+        providerWebClientCache);
     this.passportService = passportService;
     this.jwtUtils = jwtUtils;
+    this.passportRefreshExecutor = passportRefreshExecutor;
+    this.reactiveOAuth2Service = reactiveOAuth2Service;
   }
 
   public LinkedAccountWithPassportAndVisas createLink(
@@ -106,16 +123,49 @@ public class PassportProviderService extends ProviderService {
             .build());
   }
 
+  /**
+   * Validates all access token visas not validated within
+   * externalCredsConfig.getTokenValidationDuration() with their providers. Requests are made
+   * concurrently, bounded by externalCredsConfig.getVisaValidationConcurrency(). Valid visas have
+   * their last validated time updated in batches, linked accounts with an invalid visa are
+   * refreshed. Visas whose validation request fails are left to the next run.
+   *
+   * @return the number of visas checked
+   */
   public int validateAccessTokenVisas() {
     var visaDetailsList = passportService.getUnvalidatedAccessTokenVisaDetails();
+    var concurrency = Math.max(1, externalCredsConfig.getVisaValidationConcurrency());
 
-    var linkedAccountIdsToRefresh =
-        visaDetailsList.stream()
+    var validationResults =
+        Flux.fromIterable(visaDetailsList)
             .flatMap(
                 visaDetails ->
                     validateVisaWithProvider(visaDetails)
-                        ? Stream.empty()
-                        : Stream.of(visaDetails.getLinkedAccountId()))
+                        .map(visaValid -> Map.entry(visaDetails, visaValid))
+                        .onErrorResume(
+                            e -> {
+                              log.info(
+                                  "Failed to validate visa, will try again at the next interval.",
+                                  e);
+                              return Mono.empty();
+                            }),
+                concurrency)
+            .collectList()
+            .block();
+
+    var validVisaIds =
+        validationResults.stream()
+            .filter(Map.Entry::getValue)
+            .map(result -> result.getKey().getVisaId())
+            .toList();
+    // each chunk is its own short transaction so a large sweep does not hold row locks for long
+    Lists.partition(validVisaIds, VISA_LAST_VALIDATED_CHUNK_SIZE)
+        .forEach(passportService::updateVisasLastValidated);
+
+    var linkedAccountIdsToRefresh =
+        validationResults.stream()
+            .filter(result -> !result.getValue())
+            .map(result -> result.getKey().getLinkedAccountId())
             .distinct();
 
     linkedAccountIdsToRefresh.forEach(
@@ -135,24 +185,39 @@ public class PassportProviderService extends ProviderService {
 
   /**
    * Get a new passport for each linked accounts with visas or passports expiring within
-   * externalCredsConfig.getVisaAndPassportRefreshInterval time from now
+   * externalCredsConfig.getVisaAndPassportRefreshInterval time from now. Linked accounts are
+   * loaded and refreshed one page at a time so memory use does not grow with the number of links.
+   * When externalCredsConfig.getReactivePassportRefreshEnabled() is set, provider requests do not
+   * block, so a page is refreshed by a handful of threads.
    *
    * @return the number of linked accounts with expiring visas or passports
    */
   public int refreshExpiringPassports() {
     var refreshInterval = externalCredsConfig.getVisaAndPassportRefreshDuration();
     var expirationCutoff = new Timestamp(Instant.now().plus(refreshInterval).toEpochMilli());
-    var expiringLinkedAccounts = linkedAccountService.getExpiringLinkedAccounts(expirationCutoff);
 
-    for (LinkedAccount linkedAccount : expiringLinkedAccounts) {
-      try {
-        authAndRefreshPassport(linkedAccount);
-      } catch (Exception e) {
-        log.info("Failed to refresh passport, will try again at the next interval.", e);
+    var expiringLinkedAccountCount = 0;
+    var afterId = 0;
+    List<LinkedAccount> expiringLinkedAccounts;
+    do {
+      expiringLinkedAccounts =
+          linkedAccountService.getExpiringLinkedAccounts(
+              expirationCutoff, afterId, EXPIRING_LINKED_ACCOUNT_PAGE_SIZE);
+      if (externalCredsConfig.getReactivePassportRefreshEnabled()) {
+        passportRefreshExecutor.refreshAllReactive(
+            expiringLinkedAccounts, this::authAndRefreshPassportReactive);
+      } else {
+        passportRefreshExecutor.refreshAll(expiringLinkedAccounts, this::authAndRefreshPassport);
       }
-    }
 
-    return expiringLinkedAccounts.size();
+      expiringLinkedAccountCount += expiringLinkedAccounts.size();
+      if (!expiringLinkedAccounts.isEmpty()) {
+        afterId =
+            expiringLinkedAccounts.get(expiringLinkedAccounts.size() - 1).getId().orElseThrow();
+      }
+    } while (expiringLinkedAccounts.size() == EXPIRING_LINKED_ACCOUNT_PAGE_SIZE);
+
+    return expiringLinkedAccountCount;
   }
 
   @VisibleForTesting
@@ -161,43 +226,76 @@ public class PassportProviderService extends ProviderService {
       invalidateLinkedAccount(linkedAccount);
     } else {
       try {
-        var linkedAccountWithRefreshedPassport = getRefreshedPassportsAndVisas(linkedAccount);
-        linkedAccountService.upsertLinkedAccountWithPassportAndVisas(
-            linkedAccountWithRefreshedPassport);
-        var transactionClaim =
-            linkedAccountWithRefreshedPassport
-                .getPassport()
-                .flatMap(p -> jwtUtils.getJwtTransactionClaim(p.getJwt()));
-        auditLogger.logEvent(
-            new AuditLogEvent.Builder()
-                .auditLogEventType(AuditLogEventType.LinkRefreshed)
-                .provider(linkedAccount.getProvider())
-                .userId(linkedAccount.getUserId())
-                .externalUserId(linkedAccount.getExternalUserId())
-                .transactionClaim(transactionClaim)
-                .build());
+        saveRefreshedPassport(getRefreshedPassportsAndVisas(linkedAccount));
+      } catch (IllegalArgumentException | OAuth2AuthorizationException e) {
+        handlePassportRefreshFailure(linkedAccount, e);
+      }
+    }
+  }
 
-      } catch (IllegalArgumentException iae) {
-        throw new ExternalCredsException(
-            String.format("Could not contact issuer for provider %s", linkedAccount.getProvider()),
-            iae);
-      } catch (OAuth2AuthorizationException oauthEx) {
-        // if it looks like the refresh token will never work, delete the passport
-        if (unrecoverableOAuth2ErrorCodes.contains(getRootOAuth2ErrorCode(oauthEx))) {
-          log.info(
-              String.format(
-                  "Caught unrecoverable oauth2 error code refreshing passport for user id [%s].",
-                  linkedAccount.getUserId()),
-              oauthEx);
-          if (linkedAccount.getId().isEmpty()) {
-            throw new ExternalCredsException("linked account id missing");
-          }
-          invalidateLinkedAccount(linkedAccount);
-        } else {
-          // log and try again later
-          throw new ExternalCredsException("Failed to refresh passport: ", oauthEx);
-        }
+  /**
+   * Same as authAndRefreshPassport, but requests to the provider do not block. Database calls
+   * still block, so they run on passportRefreshExecutor.getDatabaseScheduler(), which bounds them
+   * below the connection pool size. Visa verification runs on boundedElastic threads.
+   */
+  @VisibleForTesting
+  Mono<Void> authAndRefreshPassportReactive(LinkedAccount linkedAccount) {
+    var databaseScheduler = passportRefreshExecutor.getDatabaseScheduler();
+    if (linkedAccount.getExpires().toInstant().isBefore(Instant.now())) {
+      return Mono.<Void>fromRunnable(() -> invalidateLinkedAccount(linkedAccount))
+          .subscribeOn(databaseScheduler);
+    }
+    return getRefreshedPassportsAndVisasReactive(linkedAccount, databaseScheduler)
+        .publishOn(databaseScheduler)
+        .doOnNext(this::saveRefreshedPassport)
+        .onErrorResume(
+            e -> e instanceof IllegalArgumentException || e instanceof OAuth2AuthorizationException,
+            e ->
+                Mono.<LinkedAccountWithPassportAndVisas>fromRunnable(
+                        () -> handlePassportRefreshFailure(linkedAccount, (RuntimeException) e))
+                    .subscribeOn(databaseScheduler))
+        .then();
+  }
+
+  private void saveRefreshedPassport(
+      LinkedAccountWithPassportAndVisas linkedAccountWithRefreshedPassport) {
+    linkedAccountService.upsertLinkedAccountWithPassportAndVisas(
+        linkedAccountWithRefreshedPassport);
+    var linkedAccount = linkedAccountWithRefreshedPassport.getLinkedAccount();
+    var transactionClaim =
+        linkedAccountWithRefreshedPassport
+            .getPassport()
+            .flatMap(p -> jwtUtils.getJwtTransactionClaim(p.getJwt()));
+    auditLogger.logEvent(
+        new AuditLogEvent.Builder()
+            .auditLogEventType(AuditLogEventType.LinkRefreshed)
+            .provider(linkedAccount.getProvider())
+            .userId(linkedAccount.getUserId())
+            .externalUserId(linkedAccount.getExternalUserId())
+            .transactionClaim(transactionClaim)
+            .build());
+  }
+
+  private void handlePassportRefreshFailure(LinkedAccount linkedAccount, RuntimeException e) {
+    if (!(e instanceof OAuth2AuthorizationException oauthEx)) {
+      throw new ExternalCredsException(
+          String.format("Could not contact issuer for provider %s", linkedAccount.getProvider()),
+          e);
+    }
+    // if it looks like the refresh token will never work, delete the passport
+    if (unrecoverableOAuth2ErrorCodes.contains(getRootOAuth2ErrorCode(oauthEx))) {
+      log.info(
+          String.format(
+              "Caught unrecoverable oauth2 error code refreshing passport for user id [%s].",
+              linkedAccount.getUserId()),
+          oauthEx);
+      if (linkedAccount.getId().isEmpty()) {
+        throw new ExternalCredsException("linked account id missing");
       }
+      invalidateLinkedAccount(linkedAccount);
+    } else {
+      // log and try again later
+      throw new ExternalCredsException("Failed to refresh passport: ", oauthEx);
     }
   }
 
@@ -211,14 +309,7 @@ public class PassportProviderService extends ProviderService {
             new OAuth2RefreshToken(linkedAccount.getRefreshToken(), null),
             Collections.emptySet());
 
-    // save the linked account with the new refresh token and extracted passport
-    var linkedAccountWithRefreshToken =
-        Optional.ofNullable(accessTokenResponse.getRefreshToken())
-            .map(
-                refreshToken ->
-                    linkedAccountService.upsertLinkedAccount(
-                        linkedAccount.withRefreshToken(refreshToken.getTokenValue())))
-            .orElse(linkedAccount);
+    var linkedAccountWithRefreshToken = saveRefreshToken(linkedAccount, accessTokenResponse);
 
     // update the passport and visas
     var userInfo =
@@ -226,8 +317,56 @@ public class PassportProviderService extends ProviderService {
     return jwtUtils.enrichAccountWithPassportAndVisas(linkedAccountWithRefreshToken, userInfo);
   }
 
+  private Mono<LinkedAccountWithPassportAndVisas> getRefreshedPassportsAndVisasReactive(
+      LinkedAccount linkedAccount, Scheduler databaseScheduler) {
+    return Mono.fromCallable(
+            () -> providerOAuthClientCache.getProviderClient(linkedAccount.getProvider()))
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMap(
+            clientRegistration ->
+                reactiveOAuth2Service
+                    .authorizeWithRefreshToken(
+                        clientRegistration,
+                        new OAuth2RefreshToken(linkedAccount.getRefreshToken(), null),
+                        Collections.emptySet())
+                    .publishOn(databaseScheduler)
+                    .flatMap(
+                        accessTokenResponse -> {
+                          var linkedAccountWithRefreshToken =
+                              saveRefreshToken(linkedAccount, accessTokenResponse);
+
+                          // update the passport and visas
+                          return reactiveOAuth2Service
+                              .getUserInfo(clientRegistration, accessTokenResponse.getAccessToken())
+                              .publishOn(Schedulers.boundedElastic())
+                              .map(
+                                  userInfo ->
+                                      jwtUtils.enrichAccountWithPassportAndVisas(
+                                          linkedAccountWithRefreshToken, userInfo));
+                        }));
+  }
+
+  // save the linked account with the new refresh token, if the provider issued one
+  private LinkedAccount saveRefreshToken(
+      LinkedAccount linkedAccount, OAuth2AccessTokenResponse accessTokenResponse) {
+    return Optional.ofNullable(accessTokenResponse.getRefreshToken())
+        .map(
+            refreshToken ->
+                linkedAccountService.upsertLinkedAccount(
+                    linkedAccount.withRefreshToken(refreshToken.getTokenValue())))
+        .orElse(linkedAccount);
+  }
+
+  /**
+   * A provider that is not configured for validation fails the returned Mono rather than this call,
+   * so it only fails the validation of this visa.
+   */
   @VisibleForTesting
-  boolean validateVisaWithProvider(VisaVerificationDetails visaDetails) {
+  Mono<Boolean> validateVisaWithProvider(VisaVerificationDetails visaDetails) {
+    return Mono.defer(() -> requestVisaValidation(visaDetails));
+  }
+
+  private Mono<Boolean> requestVisaValidation(VisaVerificationDetails visaDetails) {
     var providerProperties = externalCredsConfig.getProviderProperties(visaDetails.getProvider());
     if (providerProperties == null) {
       throw new NotFoundException(
@@ -244,29 +383,27 @@ public class PassportProviderService extends ProviderService {
                             "Validation endpoint for provider %s not found",
                             visaDetails.getProvider())));
 
-    var response =
-        WebClient.create(validationEndpoint)
-            .get()
-            .uri(uriBuilder -> uriBuilder.queryParam("visa", visaDetails.getVisaJwt()).build())
-            .retrieve();
-    var responseBody =
-        response
-            .onStatus(HttpStatusCode::isError, clientResponse -> Mono.empty())
-            .bodyToMono(String.class)
-            .block(Duration.of(1000, ChronoUnit.MILLIS));
-
-    log.info(
-        "Got visa validation response.",
-        Map.of(
-            "linkedAccountId", visaDetails.getLinkedAccountId(),
-            "providerName", visaDetails.getProvider().toString(),
-            "validationResponse", Objects.requireNonNullElse(responseBody, "[null]")));
-
-    var visaValid = "valid".equalsIgnoreCase(responseBody);
-
-    if (visaValid) {
-      passportService.updateVisaLastValidated(visaDetails.getVisaId());
-    }
-    return visaValid;
+    return providerWebClientCache
+        .getWebClient(visaDetails.getProvider())
+        .get()
+        .uri(
+            validationEndpoint,
+            uriBuilder -> uriBuilder.queryParam("visa", visaDetails.getVisaJwt()).build())
+        .retrieve()
+        .onStatus(HttpStatusCode::isError, clientResponse -> Mono.empty())
+        .bodyToMono(String.class)
+        .timeout(VISA_VALIDATION_TIMEOUT)
+        .map(Optional::of)
+        .defaultIfEmpty(Optional.empty())
+        .map(
+            responseBody -> {
+              log.info(
+                  "Got visa validation response.",
+                  Map.of(
+                      "linkedAccountId", visaDetails.getLinkedAccountId(),
+                      "providerName", visaDetails.getProvider().toString(),
+                      "validationResponse", responseBody.orElse("[null]")));
+              return responseBody.map("valid"::equalsIgnoreCase).orElse(false);
+            });
   }
 }
@@ -0,0 +1,207 @@
+package bio.terra.externalcreds.services;
+
+import bio.terra.externalcreds.ExternalCredsException;
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import bio.terra.externalcreds.config.ProviderProperties;
+import bio.terra.externalcreds.generated.model.Provider;
+import bio.terra.externalcreds.models.LinkedAccount;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Refreshing a passport involves several round trips to the provider plus a database write, so
+ * refreshing every expiring linked account serially does not keep up once there are many links.
+ * This executor refreshes linked accounts on a worker pool bounded by
+ * externalCredsConfig.getPassportRefreshParallelism(), throttled per provider by
+ * providerProperties.getMaxRefreshesPerSecond(), and reports per-run throughput.
+ */
+@Component
+@Slf4j
+public class PassportRefreshExecutor {
+  private static final String METRIC_PREFIX = "externalcreds.passport.refresh";
+
+  private final ExternalCredsConfig externalCredsConfig;
+  private final MeterRegistry meterRegistry;
+  private final int parallelism;
+  private final ExecutorService executor;
+  private final Scheduler databaseScheduler;
+  private final Map<Provider, Optional<RateLimiter>> rateLimiters = new ConcurrentHashMap<>();
+
+  public PassportRefreshExecutor(
+      ExternalCredsConfig externalCredsConfig, MeterRegistry meterRegistry) {
+    this.externalCredsConfig = externalCredsConfig;
+    this.meterRegistry = meterRegistry;
+    this.parallelism = Math.max(1, externalCredsConfig.getPassportRefreshParallelism());
+    this.executor =
+        Executors.newFixedThreadPool(
+            parallelism,
+            new ThreadFactoryBuilder()
+                .setNameFormat("passport-refresh-%d")
+                .setDaemon(true)
+                .build());
+    this.databaseScheduler = Schedulers.fromExecutorService(executor, "passport-refresh");
+  }
+
+  /**
+   * Reactive refreshers run their blocking database calls on this scheduler. It uses the same
+   * externalCredsConfig.getPassportRefreshParallelism() worker threads as refreshAll, so however
+   * many refreshes are in flight, they use at most that many database connections at once.
+   */
+  public Scheduler getDatabaseScheduler() {
+    return databaseScheduler;
+  }
+
+  /**
+   * Applies refresher to every linked account and waits for all of them to finish. Failures are
+   * logged and counted, they do not stop the remaining refreshes.
+   *
+   * @return the number of linked accounts that failed to refresh
+   */
+  public int refreshAll(
+      Collection<LinkedAccount> linkedAccounts, Consumer<LinkedAccount> refresher) {
+    var failureCount = new AtomicInteger();
+    var start = System.nanoTime();
+
+    if (parallelism == 1) {
+      linkedAccounts.forEach(l -> refresh(l, refresher, failureCount));
+    } else {
+      var futures =
+          linkedAccounts.stream()
+              .map(l -> executor.submit(() -> refresh(l, refresher, failureCount)))
+              .toList();
+      futures.forEach(PassportRefreshExecutor::await);
+    }
+
+    recordRun(linkedAccounts.size(), failureCount.get(), start);
+    return failureCount.get();
+  }
+
+  /**
+   * Same as refreshAll for refreshers that do not block. Up to
+   * externalCredsConfig.getPassportRefreshConcurrency() refreshes are in flight at once, so the
+   * number of concurrent refreshes is not bounded by the number of threads.
+   *
+   * @return the number of linked accounts that failed to refresh
+   */
+  public int refreshAllReactive(
+      Collection<LinkedAccount> linkedAccounts, Function<LinkedAccount, Mono<Void>> refresher) {
+    var failureCount = new AtomicInteger();
+    var start = System.nanoTime();
+    var concurrency = Math.max(1, externalCredsConfig.getPassportRefreshConcurrency());
+
+    // rate limiters block, so linked accounts are emitted from a worker thread instead of
+    // whichever event loop thread finished the previous refresh
+    Flux.fromIterable(linkedAccounts)
+        .subscribeOn(Schedulers.boundedElastic())
+        .doOnNext(l -> getRateLimiter(l.getProvider()).ifPresent(RateLimiter::acquire))
+        .flatMap(
+            l ->
+                Mono.defer(() -> refresher.apply(l))
+                    .doOnSuccess(v -> recordOutcome(l, "success"))
+                    .onErrorResume(
+                        e -> {
+                          failureCount.incrementAndGet();
+                          log.info(
+                              "Failed to refresh passport, will try again at the next interval.",
+                              e);
+                          recordOutcome(l, "failure");
+                          return Mono.empty();
+                        }),
+            concurrency)
+        .blockLast();
+
+    recordRun(linkedAccounts.size(), failureCount.get(), start);
+    return failureCount.get();
+  }
+
+  private void refresh(
+      LinkedAccount linkedAccount, Consumer<LinkedAccount> refresher, AtomicInteger failureCount) {
+    var outcome = "success";
+    try {
+      getRateLimiter(linkedAccount.getProvider()).ifPresent(RateLimiter::acquire);
+      refresher.accept(linkedAccount);
+    } catch (Exception e) {
+      outcome = "failure";
+      failureCount.incrementAndGet();
+      log.info("Failed to refresh passport, will try again at the next interval.", e);
+    }
+    recordOutcome(linkedAccount, outcome);
+  }
+
+  private void recordOutcome(LinkedAccount linkedAccount, String outcome) {
+    Counter.builder(METRIC_PREFIX)
+        .tag("provider", linkedAccount.getProvider().toString())
+        .tag("outcome", outcome)
+        .register(meterRegistry)
+        .increment();
+  }
+
+  private void recordRun(int linkedAccountCount, int failureCount, long start) {
+    var elapsed = Duration.ofNanos(System.nanoTime() - start);
+    var elapsedSeconds = elapsed.toNanos() / 1e9;
+    Timer.builder(METRIC_PREFIX + ".run").register(meterRegistry).record(elapsed);
+    log.info(
+        "Refreshed expiring passports",
+        Map.of(
+            "linked_account_count", linkedAccountCount,
+            "failure_count", failureCount,
+            "elapsed_ms", elapsed.toMillis(),
+            "refreshes_per_second",
+            elapsedSeconds > 0 ? linkedAccountCount / elapsedSeconds : 0));
+  }
+
+  private Optional<RateLimiter> getRateLimiter(Provider provider) {
+    return rateLimiters.computeIfAbsent(
+        provider,
+        p ->
+            Optional.ofNullable(externalCredsConfig.getProviderProperties(p))
+                .flatMap(ProviderProperties::getMaxRefreshesPerSecond)
+                .map(RateLimiter::create));
+  }
+
+  private static void await(Future<?> future) {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExternalCredsException(e);
+    } catch (ExecutionException e) {
+      throw new ExternalCredsException(e.getCause());
+    }
+  }
+
+  @PreDestroy
+  void shutdownExecutor() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+        log.warn("passport refresh executor did not terminate");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
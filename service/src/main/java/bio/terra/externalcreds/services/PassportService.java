@@ -10,8 +10,10 @@ import bio.terra.externalcreds.dataAccess.GA4GHVisaDAO;
 import bio.terra.externalcreds.dataAccess.LinkedAccountDAO;
 import bio.terra.externalcreds.generated.model.Provider;
 import bio.terra.externalcreds.models.GA4GHPassport;
+import bio.terra.externalcreds.models.GA4GHVisa;
 import bio.terra.externalcreds.models.LinkedAccount;
 import bio.terra.externalcreds.models.PassportWithVisas;
+import bio.terra.externalcreds.models.ValidatePassportRequestInternal;
 import bio.terra.externalcreds.models.ValidatePassportResultInternal;
 import bio.terra.externalcreds.models.VisaVerificationDetails;
 import bio.terra.externalcreds.visaComparators.VisaComparator;
@@ -25,6 +27,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -41,6 +44,8 @@ public class PassportService {
   private final Collection<VisaComparator> visaComparators;
 
   private static final Duration VISA_VALIDITY_TIME = Duration.of(1, ChronoUnit.HOURS);
+  private static final String MULTIPLE_USERS_MESSAGE =
+      "a single request to validate passports can contain only passports from the same user";
 
   public PassportService(
       LinkedAccountDAO linkedAccountDAO,
@@ -71,65 +76,123 @@ public class PassportService {
   }
 
   @WriteTransaction
-  public void updateVisaLastValidated(int visaId) {
-    visaDAO.updateLastValidated(visaId, new Timestamp(Instant.now().toEpochMilli()));
+  public void updateVisasLastValidated(Collection<Integer> visaIds) {
+    visaDAO.updateLastValidated(visaIds, new Timestamp(Instant.now().toEpochMilli()));
   }
 
   /**
-   * @param passportJwtStrings
-   * @param criteria
-   * @return
+   * Validates that at least one passport is valid and contains a visa matching at least one
+   * criterion. Each visa is parsed once to build an index of the criteria it matches, each
+   * criterion is then checked against that index.
+   *
+   * @param passportJwtStrings jwt encoded passports, all belonging to the same user
+   * @param criteria visa criteria, the first one matched is returned
+   * @return the validation result including audit info
    */
   @ReadTransaction
   public ValidatePassportResultInternal validatePassport(
       Collection<String> passportJwtStrings, Collection<VisaCriterionInternal> criteria) {
 
+    criteria.forEach(this::getVisaComparator);
     var passports = decodeAndValidatePassports(passportJwtStrings);
     var linkedAccountsByJwtId = getLinkedAccountsForAllPassports(passports);
+    validateSingleUser(linkedAccountsByJwtId.values());
+    return validateDecodedPassports(passports, linkedAccountsByJwtId, criteria);
+  }
+
+  /**
+   * Validates many independent requests at once. Every distinct passport across all requests is
+   * decoded once and the linked accounts for all of them are fetched in a single query. A request
+   * containing an invalid passport or passports from more than one user does not fail the batch,
+   * its result is invalid with the reason in the audit info.
+   *
+   * @param requests independent validation requests, each with passports from a single user
+   * @return one result per request, in the same order as requests
+   */
+  @ReadTransaction
+  public List<ValidatePassportResultInternal> validatePassports(
+      List<ValidatePassportRequestInternal> requests) {
+    requests.stream()
+        .flatMap(r -> r.getCriteria().stream())
+        .distinct()
+        .forEach(this::getVisaComparator);
+
+    var passportsByJwtString = new HashMap<String, Optional<PassportWithVisas>>();
+    requests.stream()
+        .flatMap(r -> r.getPassports().stream())
+        .distinct()
+        .forEach(
+            jwtString ->
+                passportsByJwtString.put(jwtString, decodeAndValidatePassportOrEmpty(jwtString)));
 
+    var linkedAccountsByJwtId =
+        getLinkedAccountsForAllPassports(
+            passportsByJwtString.values().stream().flatMap(Optional::stream).toList());
+
+    return requests.stream()
+        .map(
+            request -> {
+              var passports =
+                  request.getPassports().stream().map(passportsByJwtString::get).toList();
+              if (passports.stream().anyMatch(Optional::isEmpty)) {
+                return invalidBatchResult("invalid passport jwt");
+              }
+              var decodedPassports = passports.stream().flatMap(Optional::stream).toList();
+              var requestLinkedAccounts = new HashMap<String, LinkedAccount>();
+              decodedPassports.forEach(
+                  p -> {
+                    var jwtId = p.getPassport().getJwtId();
+                    Optional.ofNullable(linkedAccountsByJwtId.get(jwtId))
+                        .ifPresent(l -> requestLinkedAccounts.put(jwtId, l));
+                  });
+              if (!isSingleUser(requestLinkedAccounts.values())) {
+                return invalidBatchResult(MULTIPLE_USERS_MESSAGE);
+              }
+              return validateDecodedPassports(
+                  decodedPassports, requestLinkedAccounts, request.getCriteria());
+            })
+        .toList();
+  }
+
+  private ValidatePassportResultInternal validateDecodedPassports(
+      Collection<PassportWithVisas> passports,
+      Map<String, LinkedAccount> linkedAccountsByJwtId,
+      Collection<VisaCriterionInternal> criteria) {
     for (var passportWithVisas : passports) {
-      var transactionClaim =
-          jwtUtils.getJwtTransactionClaim(passportWithVisas.getPassport().getJwt());
-      for (var criterion : criteria) {
-        for (var visa : passportWithVisas.getVisas()) {
-          VisaComparator visaComparator = getVisaComparator(criterion);
-          if (visaComparator.visaTypeSupported(visa)
-              && visa.getIssuer().equals(criterion.getIssuer())
-              && visaComparator.matchesCriterion(visa, criterion)) {
-            var auditInfoMap =
-                new HashMap<>(Map.of("passport_jti", passportWithVisas.getPassport().getJwtId()));
-            transactionClaim.map(t -> auditInfoMap.put("txn", t));
-            var jwtId = passportWithVisas.getPassport().getJwtId();
-            var linkedAccount =
-                Optional.ofNullable(
-                    linkedAccountsByJwtId.get(passportWithVisas.getPassport().getJwtId()));
-            var passportValid =
-                linkedAccount
-                    .map(
-                        l -> {
-                          log.info("Found internal user {} for passport {}", l.getUserId(), jwtId);
-                          auditInfoMap.putAll(
-                              Map.of(
-                                  "external_user_id", l.getExternalUserId(),
-                                  "internal_user_id", l.getUserId()));
-                          return true;
-                        })
-                    .orElseGet(
-                        () -> {
-                          log.info(
-                              "No internal user found for passport {}. Checking issue time...",
-                              passportWithVisas.getPassport().getJwtId());
-                          return isPassportIssueTimeValid(passportWithVisas.getPassport());
-                        });
-            if (passportValid) {
-              return new ValidatePassportResultInternal.Builder()
-                  .valid(true)
-                  .matchedCriterion(criterion)
-                  .auditInfo(auditInfoMap)
-                  .build();
-            }
-          }
-        }
+      var passport = passportWithVisas.getPassport();
+      var matchedCriteria = getMatchedCriteria(passportWithVisas.getVisas());
+      var matchedCriterion = criteria.stream().filter(matchedCriteria::contains).findFirst();
+      if (matchedCriterion.isEmpty()) {
+        continue;
+      }
+
+      var auditInfoMap = new HashMap<>(Map.of("passport_jti", passport.getJwtId()));
+      jwtUtils.getJwtTransactionClaim(passport.getJwt()).map(t -> auditInfoMap.put("txn", t));
+      var jwtId = passport.getJwtId();
+      var linkedAccount = Optional.ofNullable(linkedAccountsByJwtId.get(jwtId));
+      var passportValid =
+          linkedAccount
+              .map(
+                  l -> {
+                    log.info("Found internal user {} for passport {}", l.getUserId(), jwtId);
+                    auditInfoMap.putAll(
+                        Map.of(
+                            "external_user_id", l.getExternalUserId(),
+                            "internal_user_id", l.getUserId()));
+                    return true;
+                  })
+              .orElseGet(
+                  () -> {
+                    log.info(
+                        "No internal user found for passport {}. Checking issue time...", jwtId);
+                    return isPassportIssueTimeValid(passport);
+                  });
+      if (passportValid) {
+        return new ValidatePassportResultInternal.Builder()
+            .valid(true)
+            .matchedCriterion(matchedCriterion.get())
+            .auditInfo(auditInfoMap)
+            .build();
       }
     }
 
@@ -142,6 +205,17 @@ public class PassportService {
     return invalidResult.build();
   }
 
+  /** @return the union of all criteria matched by any of the visas */
+  private Set<VisaCriterionInternal> getMatchedCriteria(Collection<GA4GHVisa> visas) {
+    return visas.stream()
+        .flatMap(
+            visa ->
+                visaComparators.stream()
+                    .filter(c -> c.visaTypeSupported(visa))
+                    .flatMap(c -> c.getMatchedCriteria(visa).stream()))
+        .collect(Collectors.toSet());
+  }
+
   private boolean isPassportIssueTimeValid(GA4GHPassport passport) {
     int comparison =
         Duration.between(jwtUtils.getJwtIssuedAt(passport.getJwt()).toInstant(), Instant.now())
@@ -158,23 +232,38 @@ public class PassportService {
     }
   }
 
+  private Optional<PassportWithVisas> decodeAndValidatePassportOrEmpty(String passportJwtString) {
+    try {
+      return Optional.of(jwtUtils.decodeAndValidatePassportJwtString(passportJwtString));
+    } catch (InvalidJwtException e) {
+      log.info("invalid passport jwt in batch validation request", e);
+      return Optional.empty();
+    }
+  }
+
   private Map<String, LinkedAccount> getLinkedAccountsForAllPassports(
       Collection<PassportWithVisas> passportWithVisas) {
-    var linkedAccounts =
-        linkedAccountDAO.getLinkedAccountByPassportJwtIds(
-            passportWithVisas.stream()
-                .map(p -> p.getPassport().getJwtId())
-                .collect(Collectors.toSet()));
-
-    if (linkedAccounts.values().stream()
-            .map(LinkedAccount::getUserId)
-            .collect(Collectors.toSet())
-            .size()
-        > 1) {
-      throw new BadRequestException(
-          "a single request to validate passports can contain only passports from the same user");
+    return linkedAccountDAO.getLinkedAccountByPassportJwtIds(
+        passportWithVisas.stream()
+            .map(p -> p.getPassport().getJwtId())
+            .collect(Collectors.toSet()));
+  }
+
+  private void validateSingleUser(Collection<LinkedAccount> linkedAccounts) {
+    if (!isSingleUser(linkedAccounts)) {
+      throw new BadRequestException(MULTIPLE_USERS_MESSAGE);
     }
-    return linkedAccounts;
+  }
+
+  private boolean isSingleUser(Collection<LinkedAccount> linkedAccounts) {
+    return linkedAccounts.stream().map(LinkedAccount::getUserId).distinct().count() <= 1;
+  }
+
+  private ValidatePassportResultInternal invalidBatchResult(String error) {
+    return new ValidatePassportResultInternal.Builder()
+        .valid(false)
+        .auditInfo(Map.of("error", error))
+        .build();
   }
 
   private VisaComparator getVisaComparator(VisaCriterionInternal criterion) {
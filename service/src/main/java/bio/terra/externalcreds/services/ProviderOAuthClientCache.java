@@ -2,11 +2,12 @@ package bio.terra.externalcreds.services;
 
 import bio.terra.externalcreds.config.ExternalCredsConfig;
 import bio.terra.externalcreds.generated.model.Provider;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import org.springframework.security.oauth2.client.registration.ClientRegistrations;
@@ -18,19 +19,36 @@ import org.springframework.stereotype.Component;
  * issuer]/.well-known/openid-configuration. That information almost never changes and we don't want
  * to hammer that api. Therefore this cache.
  *
- * <p>The cache is reset every 30 minutes to detect infrequent changes and service outages.
+ * <p>Clients are refreshed in the background every 30 minutes to detect infrequent changes. If a
+ * refresh fails, for example during a provider outage, the previous client is served for up to 6
+ * hours. See ClientRegistrationCache.
  */
 @Component
 @Slf4j
 public class ProviderOAuthClientCache {
+  private static final Duration REFRESH_INTERVAL = Duration.ofMinutes(30);
+  private static final Duration MAX_STALENESS = Duration.ofHours(6);
+
   private final ExternalCredsConfig externalCredsConfig;
+  private final ClientRegistrationCache cache;
 
-  public ProviderOAuthClientCache(ExternalCredsConfig externalCredsConfig) {
+  public ProviderOAuthClientCache(
+      ExternalCredsConfig externalCredsConfig, MeterRegistry meterRegistry) {
     this.externalCredsConfig = externalCredsConfig;
+    this.cache =
+        new ClientRegistrationCache(
+            "providerOAuthClients",
+            this::loadProviderClient,
+            REFRESH_INTERVAL,
+            MAX_STALENESS,
+            meterRegistry);
   }
 
-  @Cacheable(cacheNames = "providerOAuthClients", sync = true)
   public ClientRegistration getProviderClient(Provider provider) {
+    return cache.get(provider);
+  }
+
+  private ClientRegistration loadProviderClient(Provider provider) {
     log.info("Loading ProviderOAuthClient {}", provider);
     var providerInfo = externalCredsConfig.getProviderProperties(provider);
 
@@ -82,8 +100,13 @@ public class ProviderOAuthClientCache {
   }
 
   @Scheduled(fixedRateString = "30", timeUnit = TimeUnit.MINUTES)
-  @CacheEvict(allEntries = true, cacheNames = "providerOAuthClients")
-  public void resetCache() {
-    log.info("ProviderOAuthClientCache reset");
+  public void refreshCache() {
+    log.info("ProviderOAuthClientCache refresh");
+    cache.refreshAll();
+  }
+
+  @PreDestroy
+  void shutdownCache() {
+    cache.shutdown();
   }
 }
@@ -15,7 +15,6 @@ import bio.terra.externalcreds.models.LinkedAccountWithPassportAndVisas;
 import bio.terra.externalcreds.models.OAuth2State;
 import bio.terra.externalcreds.util.ProviderUtils;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.IOException;
 import java.security.SecureRandom;
 import java.sql.Timestamp;
 import java.time.Duration;
@@ -49,10 +48,12 @@ public class ProviderService {
   public final OAuth2Service oAuth2Service;
   public final LinkedAccountService linkedAccountService;
   public final FenceAccountKeyService fenceAccountKeyService;
+  public final FenceKeyRetriever fenceKeyRetriever;
 
   public final AuditLogger auditLogger;
   public final SecureRandom secureRandom = new SecureRandom();
   public final ObjectMapper objectMapper;
+  public final ProviderWebClientCache providerWebClientCache;
   public static final Collection<String> unrecoverableOAuth2ErrorCodes =
       Set.of(
           OAuth2ErrorCodes.ACCESS_DENIED,
@@ -68,8 +69,6 @@ public class ProviderService {
           OAuth2ErrorCodes.UNSUPPORTED_RESPONSE_TYPE,
           OAuth2ErrorCodes.UNSUPPORTED_TOKEN_TYPE);
 
-  private static final String PRIVATE_KEY_ID_FIELD = "private_key_id";
-
   public ProviderService(
       ExternalCredsConfig externalCredsConfig,
       ProviderOAuthClientCache providerOAuthClientCache,
@@ -77,16 +76,20 @@ public class ProviderService {
       OAuth2Service oAuth2Service,
       LinkedAccountService linkedAccountService,
       FenceAccountKeyService fenceAccountKeyService,
+      FenceKeyRetriever fenceKeyRetriever,
       AuditLogger auditLogger,
-      ObjectMapper objectMapper) {
+      ObjectMapper objectMapper,
+      ProviderWebClientCache providerWebClientCache) {
     this.externalCredsConfig = externalCredsConfig;
     this.providerOAuthClientCache = providerOAuthClientCache;
     this.providerTokenClientCache = providerTokenClientCache;
     this.oAuth2Service = oAuth2Service;
     this.linkedAccountService = linkedAccountService;
     this.fenceAccountKeyService = fenceAccountKeyService;
+    this.fenceKeyRetriever = fenceKeyRetriever;
     this.auditLogger = auditLogger;
     this.objectMapper = objectMapper;
+    this.providerWebClientCache = providerWebClientCache;
   }
 
   public Set<String> getProviderList() {
@@ -221,7 +224,7 @@ public class ProviderService {
             .orElseThrow(() -> new NotFoundException("Link not found for user"));
 
     if (ProviderUtils.isFenceProvider(provider) && !linkedAccount.isExpired()) {
-      revokeKey(providerInfo, linkedAccount);
+      revokeKey(linkedAccount);
     }
 
     revokeAccessToken(providerInfo, linkedAccount);
@@ -254,9 +257,11 @@ public class ProviderService {
         String.format(providerProperties.getRevokeEndpoint(), linkedAccount.getRefreshToken());
     // Add authorization information and make request
     WebClient.ResponseSpec response =
-        WebClient.create(revokeEndpoint)
+        providerWebClientCache
+            .getWebClient(linkedAccount.getProvider())
             .post()
             .uri(
+                revokeEndpoint,
                 uriBuilder ->
                     uriBuilder
                         .queryParam("client_id", providerProperties.getClientId())
@@ -277,44 +282,18 @@ public class ProviderService {
         responseBody);
   }
 
-  private void revokeKey(ProviderProperties providerProperties, LinkedAccount linkedAccount) {
+  private void revokeKey(LinkedAccount linkedAccount) {
     var providerClient = providerOAuthClientCache.getProviderClient(linkedAccount.getProvider());
     var accessToken =
         oAuth2Service.authorizeWithRefreshToken(
             providerClient,
             new OAuth2RefreshToken(linkedAccount.getRefreshToken(), null),
             Collections.emptySet());
-    var keyEndpoint = providerProperties.getKeyEndpoint();
-    if (keyEndpoint.isEmpty()) {
-      throw new IllegalArgumentException(
-          "Provider " + linkedAccount.getProvider() + " does not have a key endpoint");
-    }
-    var key = fenceAccountKeyService.getFenceAccountKey(linkedAccount);
-    key.ifPresent(
-        fenceAccountKey -> {
-          try {
-            var privateKeyJson = objectMapper.readTree(fenceAccountKey.getKeyJson());
-            var privateKeyId = privateKeyJson.get(PRIVATE_KEY_ID_FIELD).asText();
-            WebClient.ResponseSpec response =
-                WebClient.create(keyEndpoint.get() + "/" + privateKeyId)
-                    .delete()
-                    .header(
-                        "Authorization", "Bearer " + accessToken.getAccessToken().getTokenValue())
-                    .retrieve();
-            String responseBody =
-                response
-                    .onStatus(HttpStatusCode::isError, clientResponse -> Mono.empty())
-                    .bodyToMono(String.class)
-                    .block(Duration.of(11, ChronoUnit.SECONDS));
-            log.info(
-                "Key revocation request for user [{}], provider [{}] returned with the result: [{}]",
-                linkedAccount.getUserId(),
-                linkedAccount.getProvider().toString(),
-                responseBody);
-          } catch (IOException e) {
-            throw new ExternalCredsException(
-                "Failed to read key for key revocation for user " + linkedAccount.getUserId(), e);
-          }
-        });
+    fenceAccountKeyService
+        .getFenceAccountKey(linkedAccount)
+        .ifPresent(
+            fenceAccountKey ->
+                fenceKeyRetriever.revokeFenceAccountKey(
+                    linkedAccount, fenceAccountKey, accessToken.getAccessToken().getTokenValue()));
   }
 }
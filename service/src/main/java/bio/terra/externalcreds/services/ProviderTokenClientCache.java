@@ -2,11 +2,12 @@ package bio.terra.externalcreds.services;
 
 import bio.terra.externalcreds.config.ExternalCredsConfig;
 import bio.terra.externalcreds.generated.model.Provider;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import org.springframework.security.oauth2.client.registration.ClientRegistrations;
@@ -19,19 +20,35 @@ import org.springframework.stereotype.Component;
  * to hammer that api. This cache is for the client info for exchanging refresh tokens for access
  * tokens.
  *
- * <p>The cache is reset every 6 hours to detect infrequent changes.
+ * <p>Clients are refreshed in the background every 6 hours to detect infrequent changes. If a
+ * refresh fails the previous client is served for up to 24 hours. See ClientRegistrationCache.
  */
 @Component
 @Slf4j
 public class ProviderTokenClientCache {
+  private static final Duration REFRESH_INTERVAL = Duration.ofHours(6);
+  private static final Duration MAX_STALENESS = Duration.ofHours(24);
+
   private final ExternalCredsConfig externalCredsConfig;
+  private final ClientRegistrationCache cache;
 
-  public ProviderTokenClientCache(ExternalCredsConfig externalCredsConfig) {
+  public ProviderTokenClientCache(
+      ExternalCredsConfig externalCredsConfig, MeterRegistry meterRegistry) {
     this.externalCredsConfig = externalCredsConfig;
+    this.cache =
+        new ClientRegistrationCache(
+            "providerTokenClients",
+            this::loadProviderClient,
+            REFRESH_INTERVAL,
+            MAX_STALENESS,
+            meterRegistry);
   }
 
-  @Cacheable(cacheNames = "providerTokenClients", sync = true)
   public ClientRegistration getProviderClient(Provider provider) {
+    return cache.get(provider);
+  }
+
+  private ClientRegistration loadProviderClient(Provider provider) {
     log.info("Loading ProviderTokenClient {}", provider);
     var providerInfo = externalCredsConfig.getProviderProperties(provider);
 
@@ -78,8 +95,13 @@ public class ProviderTokenClientCache {
   }
 
   @Scheduled(fixedRateString = "6", timeUnit = TimeUnit.HOURS)
-  @CacheEvict(allEntries = true, cacheNames = "providerTokenClients")
-  public void resetCache() {
-    log.info("ProviderTokenClientCache reset");
+  public void refreshCache() {
+    log.info("ProviderTokenClientCache refresh");
+    cache.refreshAll();
+  }
+
+  @PreDestroy
+  void shutdownCache() {
+    cache.shutdown();
   }
 }
@@ -0,0 +1,78 @@
+package bio.terra.externalcreds.services;
+
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import bio.terra.externalcreds.config.ProviderHttpClientConfiguration;
+import bio.terra.externalcreds.config.ProviderProperties;
+import bio.terra.externalcreds.generated.model.Provider;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Calls to a provider (token revocation, fence account keys, visa validation) go to a handful of
+ * hosts over and over. Creating a WebClient per call opens a new connection, and a new TLS
+ * handshake, every time. This cache holds one WebClient per provider whose connections are pooled
+ * and kept alive according to the provider's http-client properties. Callers pass absolute urls.
+ */
+@Component
+@Slf4j
+public class ProviderWebClientCache {
+  private final ExternalCredsConfig externalCredsConfig;
+  private final Map<Provider, ConnectionProvider> connectionProviders = new ConcurrentHashMap<>();
+  private final Map<Provider, WebClient> webClients = new ConcurrentHashMap<>();
+
+  public ProviderWebClientCache(ExternalCredsConfig externalCredsConfig) {
+    this.externalCredsConfig = externalCredsConfig;
+  }
+
+  public WebClient getWebClient(Provider provider) {
+    return webClients.computeIfAbsent(provider, this::createWebClient);
+  }
+
+  private WebClient createWebClient(Provider provider) {
+    log.info("Creating WebClient for provider {}", provider);
+    var httpClientConfig =
+        Optional.ofNullable(externalCredsConfig.getProviderProperties(provider))
+            .map(ProviderProperties::getHttpClient)
+            .orElseGet(ProviderHttpClientConfiguration::create);
+    var connectionProvider = createConnectionProvider("provider-" + provider, httpClientConfig);
+    connectionProviders.put(provider, connectionProvider);
+    return createWebClient(connectionProvider, httpClientConfig);
+  }
+
+  static ConnectionProvider createConnectionProvider(
+      String name, ProviderHttpClientConfiguration httpClientConfig) {
+    return ConnectionProvider.builder(name)
+        .maxConnections(httpClientConfig.getMaxConnections())
+        .pendingAcquireTimeout(httpClientConfig.getPendingAcquireTimeout())
+        .maxIdleTime(httpClientConfig.getMaxIdleTime())
+        .maxLifeTime(httpClientConfig.getMaxLifeTime())
+        .evictInBackground(httpClientConfig.getMaxIdleTime())
+        .build();
+  }
+
+  static WebClient createWebClient(
+      ConnectionProvider connectionProvider, ProviderHttpClientConfiguration httpClientConfig) {
+    var httpClient =
+        HttpClient.create(connectionProvider)
+            .keepAlive(true)
+            .option(
+                ChannelOption.CONNECT_TIMEOUT_MILLIS,
+                (int) httpClientConfig.getConnectTimeout().toMillis())
+            .responseTimeout(httpClientConfig.getResponseTimeout());
+    return WebClient.builder().clientConnector(new ReactorClientHttpConnector(httpClient)).build();
+  }
+
+  @PreDestroy
+  void disposeConnectionProviders() {
+    connectionProviders.values().forEach(ConnectionProvider::dispose);
+  }
+}
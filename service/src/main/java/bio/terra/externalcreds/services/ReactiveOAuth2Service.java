@@ -0,0 +1,87 @@
+package bio.terra.externalcreds.services;
+
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import jakarta.annotation.PreDestroy;
+import java.util.Set;
+import org.springframework.security.oauth2.client.endpoint.WebClientReactiveRefreshTokenTokenResponseClient;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.userinfo.DefaultReactiveOAuth2UserService;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Non-blocking counterpart of the refresh and user info parts of {@link OAuth2Service}, for
+ * background jobs that refresh many linked accounts at once. Requests share a pooled reactor netty
+ * client configured by externalCredsConfig.getOauth2HttpClient(), so an in flight refresh waits on
+ * an event loop instead of holding a thread. Errors are signalled the same way OAuth2Service
+ * throws them.
+ */
+@Service
+public class ReactiveOAuth2Service {
+  private final ExternalCredsConfig externalCredsConfig;
+  // created on first use and set once the clients below use it, so callers that find it set do not
+  // need to lock
+  private volatile ConnectionProvider connectionProvider;
+  private final WebClientReactiveRefreshTokenTokenResponseClient refreshTokenTokenResponseClient =
+      new WebClientReactiveRefreshTokenTokenResponseClient();
+  private final DefaultReactiveOAuth2UserService oAuth2UserService =
+      new DefaultReactiveOAuth2UserService();
+
+  public ReactiveOAuth2Service(ExternalCredsConfig externalCredsConfig) {
+    this.externalCredsConfig = externalCredsConfig;
+  }
+
+  /** The pool is created on first use, so an instance that never refreshes does not open one. */
+  private void initializeWebClient() {
+    if (connectionProvider == null) {
+      synchronized (this) {
+        if (connectionProvider == null) {
+          connectionProvider = createWebClient();
+        }
+      }
+    }
+  }
+
+  private ConnectionProvider createWebClient() {
+    var httpClientConfig = externalCredsConfig.getOauth2HttpClient();
+    var pool = ProviderWebClientCache.createConnectionProvider("oauth2-reactive", httpClientConfig);
+    var webClient = ProviderWebClientCache.createWebClient(pool, httpClientConfig);
+    refreshTokenTokenResponseClient.setWebClient(webClient);
+    oAuth2UserService.setWebClient(webClient);
+    return pool;
+  }
+
+  /**
+   * Given a refresh token, get an access token
+   *
+   * @param providerClient identity provider client, see {@link ProviderOAuthClientCache}
+   * @param refreshToken
+   * @return token response containing access and refresh tokens, note that if there is a refresh
+   *     token in this response it should replace the original refresh token which is likely invalid
+   */
+  public Mono<OAuth2AccessTokenResponse> authorizeWithRefreshToken(
+      ClientRegistration providerClient, OAuth2RefreshToken refreshToken, Set<String> scopes) {
+    initializeWebClient();
+    return refreshTokenTokenResponseClient.getTokenResponse(
+        OAuth2Service.createRefreshTokenGrantRequest(providerClient, refreshToken, scopes));
+  }
+
+  public Mono<OAuth2User> getUserInfo(
+      ClientRegistration providerClient, OAuth2AccessToken accessToken) {
+    initializeWebClient();
+    return oAuth2UserService.loadUser(new OAuth2UserRequest(providerClient, accessToken));
+  }
+
+  @PreDestroy
+  synchronized void disposeConnectionProvider() {
+    if (connectionProvider != null) {
+      connectionProvider.dispose();
+    }
+  }
+}
@@ -13,6 +13,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
@@ -22,6 +23,8 @@ import org.springframework.stereotype.Service;
 @Slf4j
 public class TokenProviderService extends ProviderService {
 
+  private static final int EXPIRING_ACCESS_TOKEN_PAGE_SIZE = 100;
+
   private final AccessTokenCacheService accessTokenCacheService;
 
   public TokenProviderService(
@@ -31,9 +34,11 @@ public class TokenProviderService extends ProviderService {
       OAuth2Service oAuth2Service,
       LinkedAccountService linkedAccountService,
       FenceAccountKeyService fenceAccountKeyService,
+      FenceKeyRetriever fenceKeyRetriever,
       AuditLogger auditLogger,
       ObjectMapper objectMapper,
-      AccessTokenCacheService accessTokenCacheService) {
+      AccessTokenCacheService accessTokenCacheService,
+      ProviderWebClientCache providerWebClientCache) {
     super(
         externalCredsConfig,
         providerOAuthClientCache,
@@ -41,8 +46,10 @@ public class TokenProviderService extends ProviderService {
         oAuth2Service,
         linkedAccountService,
         fenceAccountKeyService,
+        fenceKeyRetriever,
         auditLogger,
-        objectMapper);
+        objectMapper,
+        providerWebClientCache);
     this.accessTokenCacheService = accessTokenCacheService;
   }
 
@@ -68,6 +75,8 @@ public class TokenProviderService extends ProviderService {
                   providerClient)
               .getLeft();
       var linkedAccount = linkedAccountService.upsertLinkedAccount(account);
+      // a relink keeps the linked account id, drop the access token from the previous link
+      accessTokenCacheService.invalidateLocalCacheEntry(linkedAccount.getId().orElseThrow());
       logLinkCreation(Optional.of(linkedAccount), auditLogEventBuilder);
       return linkedAccount;
     } catch (OAuth2AuthorizationException oauthEx) {
@@ -90,9 +99,9 @@ public class TokenProviderService extends ProviderService {
 
   public String getProviderAccessToken(
       String userId, Provider provider, AuditLogEvent.Builder auditLogEventBuilder) {
-    var linkedAccount =
+    var linkedAccountWithAccessToken =
         linkedAccountService
-            .getLinkedAccount(userId, provider)
+            .getLinkedAccountWithAccessTokenCacheEntry(userId, provider)
             .orElseThrow(
                 () ->
                     new NotFoundException(
@@ -101,6 +110,7 @@ public class TokenProviderService extends ProviderService {
                                 + "Please go to the Terra Profile page External Identities tab "
                                 + "to link your account for this provider.",
                             userId, provider)));
+    var linkedAccount = linkedAccountWithAccessToken.getLinkedAccount();
     if (linkedAccount.getExpires().before(Timestamp.from(Instant.now()))) {
       throw new ForbiddenException(
           String.format(
@@ -111,6 +121,58 @@ public class TokenProviderService extends ProviderService {
     }
     var providerProperties = externalCredsConfig.getProviderProperties(provider);
     return accessTokenCacheService.getLinkedAccountAccessToken(
-        linkedAccount, new HashSet<>(providerProperties.getScopes()), auditLogEventBuilder);
+        linkedAccountWithAccessToken,
+        new HashSet<>(providerProperties.getScopes()),
+        auditLogEventBuilder);
+  }
+
+  /**
+   * Refreshes recently read access tokens that will expire before the next run of the background
+   * job, so that requests for them do not wait on the provider. At most
+   * externalCredsConfig.getAccessTokenPreRefreshMaxPerRun() tokens are refreshed per run, zero or
+   * less turns pre-refresh off.
+   *
+   * @return the number of access tokens refreshed
+   */
+  public int refreshExpiringAccessTokens() {
+    var maxRefreshes = externalCredsConfig.getAccessTokenPreRefreshMaxPerRun();
+    if (maxRefreshes <= 0) {
+      // it would otherwise be the query's limit, where 0 still runs the query and less is an error
+      return 0;
+    }
+    var now = Instant.now();
+    var expirationCutoff =
+        Timestamp.from(
+            now.plus(externalCredsConfig.getAccessTokenExpirationBuffer())
+                .plus(externalCredsConfig.getAccessTokenPreRefreshWindow()));
+    var readSince =
+        Timestamp.from(now.minus(externalCredsConfig.getAccessTokenPreRefreshReadWindow()));
+
+    var refreshedCount = 0;
+    var afterId = 0;
+    List<LinkedAccount> linkedAccounts;
+    do {
+      linkedAccounts =
+          linkedAccountService.getLinkedAccountsWithExpiringReadAccessTokens(
+              expirationCutoff,
+              readSince,
+              afterId,
+              Math.min(EXPIRING_ACCESS_TOKEN_PAGE_SIZE, maxRefreshes - refreshedCount));
+      for (var linkedAccount : linkedAccounts) {
+        try {
+          accessTokenCacheService.refreshAccessToken(linkedAccount);
+          refreshedCount++;
+        } catch (Exception e) {
+          log.warn(
+              "Failed to refresh access token ahead of expiration for linked account {}",
+              linkedAccount.getId().orElseThrow(),
+              e);
+        }
+        afterId = linkedAccount.getId().orElseThrow();
+      }
+    } while (linkedAccounts.size() == EXPIRING_ACCESS_TOKEN_PAGE_SIZE
+        && refreshedCount < maxRefreshes);
+
+    return refreshedCount;
   }
 }
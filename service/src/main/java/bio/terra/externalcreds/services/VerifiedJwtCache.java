@@ -0,0 +1,63 @@
+package bio.terra.externalcreds.services;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Function;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+
+/**
+ * Validating a jwt requires verifying its signature, and the same passport is decoded several times
+ * over the course of a single request (validation, transaction claim extraction, audit logging).
+ * This cache holds jwts that have already been decoded and validated so that each distinct jwt is
+ * only verified once.
+ *
+ * <p>Entries are keyed by a digest of the jwt string and never outlive the jwt's exp claim. Jwts
+ * without an exp claim are not cached.
+ */
+@Component
+public class VerifiedJwtCache {
+  private static final long MAXIMUM_SIZE = 10_000;
+  private static final Duration MAXIMUM_TTL = Duration.ofHours(1);
+
+  private final Cache<String, Jwt> cache =
+      CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE).expireAfterWrite(MAXIMUM_TTL).build();
+
+  /**
+   * @param jwtString the encoded jwt
+   * @param decoder decodes and validates jwtString on a cache miss, exceptions are not cached
+   * @return the decoded jwt
+   */
+  public Jwt get(String jwtString, Function<String, Jwt> decoder) {
+    var key = digest(jwtString);
+    var cachedJwt = cache.getIfPresent(key);
+    if (cachedJwt != null && !isExpired(cachedJwt)) {
+      return cachedJwt;
+    }
+
+    var decodedJwt = decoder.apply(jwtString);
+    if (isExpired(decodedJwt)) {
+      cache.invalidate(key);
+    } else {
+      cache.put(key, decodedJwt);
+    }
+    return decodedJwt;
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  private static boolean isExpired(Jwt jwt) {
+    var expiresAt = jwt.getExpiresAt();
+    return expiresAt == null || !expiresAt.isAfter(Instant.now());
+  }
+
+  private static String digest(String jwtString) {
+    return Hashing.sha256().hashString(jwtString, StandardCharsets.UTF_8).toString();
+  }
+}
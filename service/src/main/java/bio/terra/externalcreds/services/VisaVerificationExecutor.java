@@ -0,0 +1,101 @@
+package bio.terra.externalcreds.services;
+
+import bio.terra.externalcreds.ExternalCredsException;
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import jakarta.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * A passport can carry dozens of visas, each of which requires its own signature verification.
+ * Visas are independent of one another so this executor verifies them in parallel on a dedicated
+ * pool bounded by externalCredsConfig.getVisaVerificationParallelism(), failing as soon as any
+ * single visa fails.
+ */
+@Component
+@Slf4j
+public class VisaVerificationExecutor {
+  private final int parallelism;
+  private final ForkJoinPool pool;
+
+  public VisaVerificationExecutor(ExternalCredsConfig externalCredsConfig) {
+    this.parallelism = Math.max(1, externalCredsConfig.getVisaVerificationParallelism());
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Applies verifier to every visa jwt string, preserving order.
+   *
+   * @param visaJwtStrings encoded visas
+   * @param verifier decodes and validates a single visa
+   * @return the results of verifier in the same order as visaJwtStrings
+   * @throws RuntimeException the first exception thrown by verifier, verifications that have not
+   *     started by then are skipped and those already running finish with their results discarded
+   */
+  public <T> List<T> verifyAll(List<String> visaJwtStrings, Function<String, T> verifier) {
+    if (parallelism == 1 || visaJwtStrings.size() <= 1) {
+      return visaJwtStrings.stream().map(verifier).toList();
+    }
+
+    var firstFailure = new CompletableFuture<Void>();
+    var futures =
+        visaJwtStrings.stream()
+            .map(
+                visaJwtString ->
+                    CompletableFuture.supplyAsync(
+                            () -> {
+                              // skip verifications still queued after one failed, cancelling
+                              // their futures would not stop them
+                              if (firstFailure.isDone()) {
+                                throw new CancellationException();
+                              }
+                              return verifier.apply(visaJwtString);
+                            },
+                            pool)
+                        .whenComplete(
+                            (result, e) -> {
+                              if (e != null) {
+                                firstFailure.completeExceptionally(e);
+                              }
+                            }))
+            .toList();
+
+    try {
+      CompletableFuture.anyOf(
+              CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)), firstFailure)
+          .join();
+    } catch (CompletionException e) {
+      throw unwrap(e);
+    }
+    return futures.stream().map(CompletableFuture::join).toList();
+  }
+
+  private static RuntimeException unwrap(CompletionException e) {
+    Throwable cause = e;
+    while (cause instanceof CompletionException && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    return cause instanceof RuntimeException runtimeException
+        ? runtimeException
+        : new ExternalCredsException(cause);
+  }
+
+  @PreDestroy
+  void shutdownPool() {
+    pool.shutdown();
+    try {
+      if (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+        log.warn("visa verification pool did not terminate");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
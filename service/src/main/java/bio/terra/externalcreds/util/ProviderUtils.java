@@ -12,4 +12,8 @@ public class ProviderUtils {
   public static boolean isFenceProvider(Provider provider) {
     return fenceProviders.contains(provider);
   }
+
+  public static Set<Provider> getFenceProviders() {
+    return fenceProviders;
+  }
 }
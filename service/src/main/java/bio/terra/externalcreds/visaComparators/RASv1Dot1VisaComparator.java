@@ -9,7 +9,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.nimbusds.jwt.JWTParser;
 import java.text.ParseException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Collectors;
 import org.immutables.value.Value;
 import org.springframework.stereotype.Component;
 
@@ -61,9 +63,28 @@ public class RASv1Dot1VisaComparator implements VisaComparator {
     }
   }
 
+  @Override
+  public Set<VisaCriterionInternal> getMatchedCriteria(GA4GHVisa visa) {
+    try {
+      return getVisaPermissions(visa).stream()
+          .<VisaCriterionInternal>map(
+              p ->
+                  new RASv1Dot1VisaCriterionInternal.Builder()
+                      .issuer(visa.getIssuer())
+                      .phsId(p.getPhsId())
+                      .consentCode(p.getConsentGroup())
+                      .build())
+          .collect(Collectors.toSet());
+    } catch (ParseException e) {
+      throw new BadRequestException("Error parsing visa.", e);
+    }
+  }
+
   private Set<DbGapPermission> getVisaPermissions(GA4GHVisa visa) throws ParseException {
     var visaClaim = JWTParser.parse(visa.getJwt()).getJWTClaimsSet().getClaim(DBGAP_CLAIM);
-    return objectMapper.convertValue(visaClaim, new TypeReference<>() {});
+    Set<DbGapPermission> permissions =
+        objectMapper.convertValue(visaClaim, new TypeReference<>() {});
+    return Objects.requireNonNullElse(permissions, Set.of());
   }
 
   @Override
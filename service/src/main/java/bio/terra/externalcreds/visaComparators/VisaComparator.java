@@ -1,6 +1,7 @@
 package bio.terra.externalcreds.visaComparators;
 
 import bio.terra.externalcreds.models.GA4GHVisa;
+import java.util.Set;
 
 public interface VisaComparator {
   /** @return true if visas represent the same authorizations */
@@ -8,6 +9,12 @@ public interface VisaComparator {
 
   boolean matchesCriterion(GA4GHVisa visa, VisaCriterionInternal criterion);
 
+  /**
+   * @return every criterion that visa matches, such that for any criterion c of a supported type
+   *     matchesCriterion(visa, c) and visa's issuer equals c's issuer iff the result contains c
+   */
+  Set<VisaCriterionInternal> getMatchedCriteria(GA4GHVisa visa);
+
   boolean visaTypeSupported(GA4GHVisa visa);
 
   boolean criterionTypeSupported(VisaCriterionInternal criterion);
@@ -14,6 +14,7 @@ import bio.terra.externalcreds.auditLogging.AuditLogEvent;
 import bio.terra.externalcreds.auditLogging.AuditLogEventType;
 import bio.terra.externalcreds.auditLogging.AuditLogger;
 import bio.terra.externalcreds.generated.model.Provider;
+import bio.terra.externalcreds.models.LinkedAccountWithFenceAccountKey;
 import bio.terra.externalcreds.services.FenceAccountKeyService;
 import bio.terra.externalcreds.services.FenceProviderService;
 import bio.terra.externalcreds.services.LinkedAccountService;
@@ -60,10 +61,13 @@ class FenceAccountKeyApiControllerTest extends BaseTest {
               .withExternalUserId(externalUserId)
               .withUserId(userId);
 
-      when(linkedAccountServiceMock.getLinkedAccount(userId, provider))
-          .thenReturn(Optional.of(linkedAccount));
-      when(fenceProviderServiceMock.getFenceAccountKey(linkedAccount))
-          .thenReturn(Optional.of(fenceAccountKey));
+      when(fenceProviderServiceMock.getLinkedAccountWithFenceAccountKey(userId, provider))
+          .thenReturn(
+              Optional.of(
+                  new LinkedAccountWithFenceAccountKey.Builder()
+                      .linkedAccount(linkedAccount)
+                      .fenceAccountKey(fenceAccountKey)
+                      .build()));
 
       mvc.perform(
               get("/api/fenceAccountKey/v1/{provider}", provider)
@@ -90,9 +94,15 @@ class FenceAccountKeyApiControllerTest extends BaseTest {
       var fenceAccountKey =
           TestUtils.createRandomFenceAccountKey()
               .withExpiresAt(new Timestamp(System.currentTimeMillis() - 1000).toInstant());
+      var linkedAccount = TestUtils.createRandomLinkedAccount(provider).withUserId(userId);
       mockSamUser(userId, accessToken);
-      when(fenceAccountKeyServiceMock.getFenceAccountKey(userId, provider))
-          .thenReturn(Optional.of(fenceAccountKey));
+      when(fenceProviderServiceMock.getLinkedAccountWithFenceAccountKey(userId, provider))
+          .thenReturn(
+              Optional.of(
+                  new LinkedAccountWithFenceAccountKey.Builder()
+                      .linkedAccount(linkedAccount)
+                      .fenceAccountKey(fenceAccountKey)
+                      .build()));
       mvc.perform(
               get("/api/fenceAccountKey/v1/{provider}", provider)
                   .header("authorization", "Bearer " + accessToken))
@@ -1,5 +1,6 @@
 package bio.terra.externalcreds.controllers;
 
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
@@ -8,8 +9,11 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 import bio.terra.externalcreds.BaseTest;
 import bio.terra.externalcreds.generated.model.OneOfValidatePassportRequestCriteriaItems;
 import bio.terra.externalcreds.generated.model.RASv1Dot1VisaCriterion;
+import bio.terra.externalcreds.generated.model.ValidatePassportBatchRequest;
+import bio.terra.externalcreds.generated.model.ValidatePassportBatchResult;
 import bio.terra.externalcreds.generated.model.ValidatePassportRequest;
 import bio.terra.externalcreds.generated.model.ValidatePassportResult;
+import bio.terra.externalcreds.models.ValidatePassportRequestInternal;
 import bio.terra.externalcreds.models.ValidatePassportResultInternal;
 import bio.terra.externalcreds.services.PassportService;
 import bio.terra.externalcreds.visaComparators.RASv1Dot1VisaCriterionInternal.Builder;
@@ -17,6 +21,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -72,4 +77,89 @@ public class PassportApiControllerTest extends BaseTest {
         .andExpect(status().isOk())
         .andExpect(content().json(objectMapper.writeValueAsString(expected)));
   }
+
+  @Test
+  void testValidatePassportBatch() throws Exception {
+    var criterion = new RASv1Dot1VisaCriterion().consentCode("c1").phsId("phs001234");
+    criterion.issuer("visa issuer");
+    var criteria = new ArrayList<OneOfValidatePassportRequestCriteriaItems>(List.of(criterion));
+    var req =
+        new ValidatePassportBatchRequest()
+            .requests(
+                List.of(
+                    new ValidatePassportRequest()
+                        .passports(List.of("passport 1"))
+                        .criteria(criteria),
+                    new ValidatePassportRequest()
+                        .passports(List.of("passport 2"))
+                        .criteria(criteria)));
+
+    var internalCriterion =
+        new Builder()
+            .phsId(criterion.getPhsId())
+            .consentCode(criterion.getConsentCode())
+            .issuer(criterion.getIssuer())
+            .build();
+
+    var validResult =
+        new ValidatePassportResultInternal.Builder()
+            .valid(true)
+            .matchedCriterion(internalCriterion)
+            .auditInfo(Map.of("foo", "bar"))
+            .build();
+    var invalidResult = new ValidatePassportResultInternal.Builder().valid(false).build();
+
+    when(passportServiceMock.validatePassports(
+            List.of(
+                new ValidatePassportRequestInternal.Builder()
+                    .addPassports("passport 1")
+                    .addCriteria(internalCriterion)
+                    .build(),
+                new ValidatePassportRequestInternal.Builder()
+                    .addPassports("passport 2")
+                    .addCriteria(internalCriterion)
+                    .build())))
+        .thenReturn(List.of(validResult, invalidResult));
+
+    var expected =
+        new ValidatePassportBatchResult()
+            .results(
+                List.of(
+                    new ValidatePassportResult()
+                        .auditInfo(Map.of("foo", "bar"))
+                        .valid(true)
+                        .matchedCriterion(criterion),
+                    new ValidatePassportResult().valid(false)));
+
+    mvc.perform(
+            post("/passport/v1/validate/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(req)))
+        .andExpect(status().isOk())
+        .andExpect(content().json(objectMapper.writeValueAsString(expected)));
+  }
+
+  @Test
+  void testValidatePassportBatchTooLarge() throws Exception {
+    var criterion = new RASv1Dot1VisaCriterion().consentCode("c1").phsId("phs001234");
+    criterion.issuer("visa issuer");
+    var criteria = new ArrayList<OneOfValidatePassportRequestCriteriaItems>(List.of(criterion));
+    var req =
+        new ValidatePassportBatchRequest()
+            .requests(
+                IntStream.rangeClosed(0, PassportApiController.MAX_BATCH_SIZE)
+                    .mapToObj(
+                        i ->
+                            new ValidatePassportRequest()
+                                .passports(List.of("passport " + i))
+                                .criteria(criteria))
+                    .toList());
+
+    mvc.perform(
+            post("/passport/v1/validate/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(req)))
+        .andExpect(status().isBadRequest());
+    verifyNoInteractions(passportServiceMock);
+  }
 }
@@ -6,6 +6,9 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import bio.terra.externalcreds.BaseTest;
 import bio.terra.externalcreds.TestUtils;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import org.junit.jupiter.api.Nested;
@@ -93,9 +96,41 @@ class AccessTokenCacheDAOTest extends BaseTest {
       assertEmpty(accessTokenCacheDAO.getAccessTokenCacheEntry(savedAccount));
     }
 
+    @Test
+    void testDeleteExpiredAccessTokenCacheEntries() {
+      var expiredAccount =
+          linkedAccountDAO.upsertLinkedAccount(TestUtils.createRandomLinkedAccount());
+      var unexpiredAccount =
+          linkedAccountDAO.upsertLinkedAccount(TestUtils.createRandomLinkedAccount());
+      var accessTokenCacheEntry = TestUtils.createRandomAccessTokenCacheEntry();
+      accessTokenCacheDAO.upsertAccessTokenCacheEntry(
+          accessTokenCacheEntry
+              .withLinkedAccountId(expiredAccount.getId().get())
+              .withExpiresAt(Instant.now().minusSeconds(60)));
+      accessTokenCacheDAO.upsertAccessTokenCacheEntry(
+          accessTokenCacheEntry.withLinkedAccountId(unexpiredAccount.getId().get()));
+
+      assertTrue(
+          accessTokenCacheDAO.deleteExpiredAccessTokenCacheEntries(
+                  Timestamp.from(Instant.now()), Integer.MAX_VALUE)
+              >= 1);
+      assertEmpty(accessTokenCacheDAO.getAccessTokenCacheEntry(expiredAccount));
+      assertPresent(accessTokenCacheDAO.getAccessTokenCacheEntry(unexpiredAccount));
+    }
+
     @Test
     void testDeleteNonexistentAccessTokenCacheEntry() {
       assertFalse(accessTokenCacheDAO.deleteAccessTokenCacheEntry(-1));
     }
   }
+
+  @Nested
+  class UpdateLastReadAt {
+
+    @Test
+    void testUpdateLastReadAtNoLinkedAccounts() {
+      assertEquals(
+          0, accessTokenCacheDAO.updateLastReadAt(List.of(), Timestamp.from(Instant.now())));
+    }
+  }
 }
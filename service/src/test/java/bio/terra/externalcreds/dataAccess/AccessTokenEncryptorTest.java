@@ -0,0 +1,80 @@
+package bio.terra.externalcreds.dataAccess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class AccessTokenEncryptorTest {
+
+  private final AccessTokenEncryptor accessTokenEncryptor = createEncryptor();
+
+  @Test
+  void testEncryptAndDecrypt() {
+    var accessToken = UUID.randomUUID().toString();
+
+    var encryptedAccessToken = accessTokenEncryptor.encrypt(1, accessToken);
+
+    assertNotEquals(accessToken, new String(encryptedAccessToken, StandardCharsets.UTF_8));
+    assertEquals(Optional.of(accessToken), accessTokenEncryptor.decrypt(1, encryptedAccessToken));
+  }
+
+  @Test
+  void testDecryptForOtherLinkedAccountFails() {
+    var encryptedAccessToken = accessTokenEncryptor.encrypt(1, UUID.randomUUID().toString());
+
+    assertEquals(Optional.empty(), accessTokenEncryptor.decrypt(2, encryptedAccessToken));
+  }
+
+  @Test
+  void testDecryptWithOtherKeyFails() {
+    var encryptedAccessToken = accessTokenEncryptor.encrypt(1, UUID.randomUUID().toString());
+
+    assertEquals(Optional.empty(), createEncryptor().decrypt(1, encryptedAccessToken));
+  }
+
+  @Test
+  void testPlainTextAccessTokenIsRead() {
+    var accessToken = UUID.randomUUID().toString();
+
+    assertEquals(
+        Optional.of(accessToken), accessTokenEncryptor.getAccessToken(1, accessToken, null));
+  }
+
+  @Test
+  void testDisabledWithoutKey() {
+    assertFalse(new AccessTokenEncryptor(ExternalCredsConfig.create()).isEnabled());
+  }
+
+  @Test
+  void testInvalidKeyFailsConstruction() {
+    var wrongLengthKey = Base64.getEncoder().encodeToString(new byte[20]);
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            new AccessTokenEncryptor(
+                ExternalCredsConfig.create().setAccessTokenCacheEncryptionKey(wrongLengthKey)));
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            new AccessTokenEncryptor(
+                ExternalCredsConfig.create().setAccessTokenCacheEncryptionKey("not base64!")));
+  }
+
+  private static AccessTokenEncryptor createEncryptor() {
+    var key = new byte[32];
+    new SecureRandom().nextBytes(key);
+    return new AccessTokenEncryptor(
+        ExternalCredsConfig.create()
+            .setAccessTokenCacheEncryptionKey(Base64.getEncoder().encodeToString(key)));
+  }
+}
@@ -0,0 +1,53 @@
+package bio.terra.externalcreds.dataAccess;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import bio.terra.externalcreds.BaseTest;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+class DatabaseNotificationListenerTest extends BaseTest {
+
+  @Autowired private DatabaseNotificationListener databaseNotificationListener;
+  @Autowired private DataSource dataSource;
+
+  @Test
+  void testSubscriberIsNotifiedWhenKeyIsSaved() throws Exception {
+    var linkedAccountId = 1234567;
+    var otherLinkedAccountId = 7654321;
+    var keySaved = databaseNotificationListener.subscribe(linkedAccountId);
+    var otherKeySaved = databaseNotificationListener.subscribe(otherLinkedAccountId);
+    try {
+      // the listener may not be listening yet when the test starts, so keep notifying
+      for (var attempt = 0; attempt < 50 && !keySaved.isDone(); attempt++) {
+        notifyKeySaved(linkedAccountId);
+        try {
+          keySaved.get(200, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          // not delivered yet
+        }
+      }
+      assertTrue(keySaved.isDone());
+      assertFalse(otherKeySaved.isDone());
+    } finally {
+      databaseNotificationListener.unsubscribe(linkedAccountId, keySaved);
+      databaseNotificationListener.unsubscribe(otherLinkedAccountId, otherKeySaved);
+    }
+  }
+
+  // notifications are only delivered on commit, so this cannot use the test's transaction
+  private void notifyKeySaved(int linkedAccountId) throws SQLException {
+    try (var connection = dataSource.getConnection()) {
+      connection.setAutoCommit(true);
+      try (var statement = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+        statement.setString(1, DatabaseNotificationListener.FENCE_ACCOUNT_KEY_SAVED_CHANNEL);
+        statement.setString(2, String.valueOf(linkedAccountId));
+        statement.execute();
+      }
+    }
+  }
+}
@@ -3,72 +3,74 @@ package bio.terra.externalcreds.dataAccess;
 import static org.junit.jupiter.api.Assertions.*;
 
 import bio.terra.externalcreds.BaseTest;
-import bio.terra.externalcreds.TestUtils;
-import bio.terra.externalcreds.models.DistributedLock;
-import java.util.Optional;
+import bio.terra.externalcreds.exception.DistributedLockException;
+import java.sql.SQLException;
+import java.time.Duration;
 import java.util.UUID;
-import org.junit.jupiter.api.Nested;
+import javax.sql.DataSource;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.DuplicateKeyException;
 
 class DistributedLockDAOTest extends BaseTest {
 
   @Autowired private DistributedLockDAO distributedLockDAO;
+  @Autowired private DataSource dataSource;
   private final String testLockName = "provider-createKey";
-  private final DistributedLock testDistributedLock =
-      new DistributedLock.Builder()
-          .lockName(testLockName)
-          .userId(UUID.randomUUID().toString())
-          .expiresAt(TestUtils.getFutureTimestamp().toInstant())
-          .build();
+  private final String testUserId = UUID.randomUUID().toString();
 
   @Test
-  void testGetMissingDistributedLock() {
-    var shouldBeEmpty = distributedLockDAO.getDistributedLock(testLockName, "nonexistent_user_id");
-    assertEmpty(shouldBeEmpty);
+  void testRunWithLock() {
+    var result =
+        distributedLockDAO.runWithLock(
+            testLockName, testUserId, Duration.ofSeconds(5), () -> "locked");
+    assertEquals("locked", result);
   }
 
-  @Nested
-  class CreateDistributedLock {
-
-    @Test
-    void testCreateAndGetDistributedLock() {
-      DistributedLock savedLock = distributedLockDAO.insertDistributedLock(testDistributedLock);
-      assertEquals(testDistributedLock, savedLock);
-      var loadedDistributedLock =
-          distributedLockDAO.getDistributedLock(savedLock.getLockName(), savedLock.getUserId());
-      assertEquals(Optional.of(savedLock), loadedDistributedLock);
-    }
+  @Test
+  void testRunWithLockReleasesLockInsideTransaction() throws SQLException {
+    // the test runs in a transaction that is still open after runWithLock returns
+    distributedLockDAO.runWithLock(testLockName, testUserId, Duration.ofSeconds(5), () -> "locked");
 
-    @Test
-    void testCreateDuplicateDistributedLockConflictError() {
-      DistributedLock savedLock = distributedLockDAO.insertDistributedLock(testDistributedLock);
-      assertEquals(testDistributedLock, savedLock);
-      assertThrows(
-          DuplicateKeyException.class,
-          () -> distributedLockDAO.insertDistributedLock(testDistributedLock));
+    try (var connection = dataSource.getConnection();
+        var statement =
+            connection.prepareStatement(
+                "SELECT pg_try_advisory_lock(hashtextextended(?, 0)), "
+                    + "pg_advisory_unlock(hashtextextended(?, 0))")) {
+      var lockKey = testLockName + ":" + testUserId;
+      statement.setString(1, lockKey);
+      statement.setString(2, lockKey);
+      try (var resultSet = statement.executeQuery()) {
+        assertTrue(resultSet.next());
+        assertTrue(resultSet.getBoolean(1));
+      }
     }
   }
 
-  @Nested
-  class DeleteDistributedLock {
-
-    @Test
-    void testDeleteDistributedLock() {
-      DistributedLock savedLock = distributedLockDAO.insertDistributedLock(testDistributedLock);
-      assertPresent(
-          distributedLockDAO.getDistributedLock(savedLock.getLockName(), savedLock.getUserId()));
-      assertTrue(
-          distributedLockDAO.deleteDistributedLock(savedLock.getLockName(), savedLock.getUserId()));
-      assertEmpty(
-          distributedLockDAO.getDistributedLock(savedLock.getLockName(), savedLock.getUserId()));
-    }
+  @Test
+  void testRunWithLockTimesOutWhileLockHeldElsewhere() throws SQLException {
+    try (var connection = dataSource.getConnection()) {
+      connection.setAutoCommit(false);
+      try (var statement =
+          connection.prepareStatement("SELECT pg_advisory_xact_lock(hashtextextended(?, 0))")) {
+        statement.setString(1, testLockName + ":" + testUserId);
+        statement.execute();
+      }
 
-    @Test
-    void testDeleteNonexistentDistributedLock() {
+      assertThrows(
+          DistributedLockException.class,
+          () ->
+              distributedLockDAO.runWithLock(
+                  testLockName,
+                  testUserId,
+                  Duration.ofMillis(100),
+                  () -> fail("should not run without the lock")));
 
-      assertFalse(distributedLockDAO.deleteDistributedLock(testLockName, "nonexistent_user_id"));
+      // a different user's lock is not affected
+      assertEquals(
+          "locked",
+          distributedLockDAO.runWithLock(
+              testLockName, "other_user_id", Duration.ofMillis(100), () -> "locked"));
+      connection.rollback();
     }
   }
 }
@@ -1,12 +1,14 @@
 package bio.terra.externalcreds.dataAccess;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import bio.terra.externalcreds.BaseTest;
 import bio.terra.externalcreds.TestUtils;
 import bio.terra.externalcreds.generated.model.Provider;
+import bio.terra.externalcreds.models.GA4GHVisa;
 import bio.terra.externalcreds.models.TokenTypeEnum;
 import bio.terra.externalcreds.models.VisaVerificationDetails;
 import java.sql.Timestamp;
@@ -16,6 +18,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -179,6 +182,39 @@ class GA4GHVisaDAOTest extends BaseTest {
     assertEquals(Set.of(savedVisa1, savedVisa2), Set.copyOf(loadedVisas));
   }
 
+  @Test
+  void testInsertAndListVisas() {
+    var savedLinkedAccount =
+        linkedAccountDAO.upsertLinkedAccount(TestUtils.createRandomPassportLinkedAccount());
+    var savedPassport =
+        passportDAO.insertPassport(
+            TestUtils.createRandomPassport().withLinkedAccountId(savedLinkedAccount.getId()));
+
+    var expectedVisas =
+        List.of(
+            TestUtils.createRandomVisa().withPassportId(savedPassport.getId()),
+            TestUtils.createRandomVisa().withPassportId(savedPassport.getId()),
+            TestUtils.createRandomVisa()
+                .withPassportId(savedPassport.getId())
+                .withTokenType(TokenTypeEnum.document_token));
+    var savedVisas = visaDAO.insertVisas(expectedVisas);
+
+    assertEquals(expectedVisas.size(), savedVisas.size());
+    for (var i = 0; i < expectedVisas.size(); i++) {
+      assertTrue(savedVisas.get(i).getId().isPresent());
+      assertEquals(expectedVisas.get(i), savedVisas.get(i).withId(Optional.empty()));
+    }
+
+    var loadedVisas =
+        visaDAO.listVisas(savedLinkedAccount.getUserId(), savedLinkedAccount.getProvider());
+    assertEquals(Set.copyOf(savedVisas), Set.copyOf(loadedVisas));
+  }
+
+  @Test
+  void testInsertNoVisas() {
+    assertEquals(List.of(), visaDAO.insertVisas(List.of()));
+  }
+
   @Test
   void testInsertVisaWithInvalidForeignKey() {
     var invalidKeyVisa = TestUtils.createRandomVisa().withPassportId(-1);
@@ -198,14 +234,33 @@ class GA4GHVisaDAOTest extends BaseTest {
     var savedPassport =
         passportDAO.insertPassport(
             TestUtils.createRandomPassport().withLinkedAccountId(savedLinkedAccount.getId()));
-    var savedVisa =
+    var savedVisa1 =
+        visaDAO.insertVisa(TestUtils.createRandomVisa().withPassportId(savedPassport.getId()));
+    var savedVisa2 =
+        visaDAO.insertVisa(TestUtils.createRandomVisa().withPassportId(savedPassport.getId()));
+    var notUpdatedVisa =
         visaDAO.insertVisa(TestUtils.createRandomVisa().withPassportId(savedPassport.getId()));
 
     Timestamp expectedLastValidated = new Timestamp(2363245);
-    visaDAO.updateLastValidated(savedVisa.getId().get(), expectedLastValidated);
+    assertEquals(
+        2,
+        visaDAO.updateLastValidated(
+            List.of(savedVisa1.getId().get(), savedVisa2.getId().get()), expectedLastValidated));
 
-    var visas = visaDAO.listVisas(savedLinkedAccount.getUserId(), savedLinkedAccount.getProvider());
-    assertEquals(1, visas.size());
-    assertEquals(expectedLastValidated, visas.get(0).getLastValidated().get());
+    var lastValidatedById =
+        visaDAO.listVisas(savedLinkedAccount.getUserId(), savedLinkedAccount.getProvider()).stream()
+            .collect(Collectors.toMap(v -> v.getId().get(), GA4GHVisa::getLastValidated));
+    assertEquals(3, lastValidatedById.size());
+    assertEquals(
+        Optional.of(expectedLastValidated), lastValidatedById.get(savedVisa1.getId().get()));
+    assertEquals(
+        Optional.of(expectedLastValidated), lastValidatedById.get(savedVisa2.getId().get()));
+    assertNotEquals(
+        Optional.of(expectedLastValidated), lastValidatedById.get(notUpdatedVisa.getId().get()));
+  }
+
+  @Test
+  void updateLastValidatedNoVisas() {
+    assertEquals(0, visaDAO.updateLastValidated(List.of(), new Timestamp(2363245)));
   }
 }
@@ -12,14 +12,19 @@ import bio.terra.externalcreds.config.ExternalCredsConfig;
 import bio.terra.externalcreds.config.ProviderProperties;
 import bio.terra.externalcreds.generated.model.Provider;
 import bio.terra.externalcreds.models.GA4GHPassport;
+import bio.terra.externalcreds.models.LinkedAccount;
+import bio.terra.externalcreds.models.LinkedAccountWithAccessTokenCacheEntry;
+import bio.terra.externalcreds.util.ProviderUtils;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -31,6 +36,8 @@ class LinkedAccountDAOTest extends BaseTest {
   @Autowired private LinkedAccountDAO linkedAccountDAO;
   @Autowired private GA4GHPassportDAO passportDAO;
   @Autowired private GA4GHVisaDAO visaDAO;
+  @Autowired private AccessTokenCacheDAO accessTokenCacheDAO;
+  @Autowired private FenceAccountKeyDAO fenceAccountKeyDAO;
   @MockBean private ExternalCredsConfig externalCredsConfig;
 
   @BeforeEach
@@ -78,6 +85,39 @@ class LinkedAccountDAOTest extends BaseTest {
     assertEquals(Optional.of(savedLinkedAccount), loadedLinkedAccount);
   }
 
+  @Test
+  void testGetLinkedAccountWithAccessTokenCacheEntry() {
+    var savedLinkedAccount =
+        linkedAccountDAO.upsertLinkedAccount(TestUtils.createRandomLinkedAccount());
+
+    var withoutAccessToken =
+        linkedAccountDAO.getLinkedAccountWithAccessTokenCacheEntry(
+            savedLinkedAccount.getUserId(), savedLinkedAccount.getProvider());
+    assertEquals(
+        Optional.of(
+            new LinkedAccountWithAccessTokenCacheEntry.Builder()
+                .linkedAccount(savedLinkedAccount)
+                .build()),
+        withoutAccessToken);
+
+    var accessTokenCacheEntry =
+        accessTokenCacheDAO.upsertAccessTokenCacheEntry(
+            TestUtils.createRandomAccessTokenCacheEntry()
+                .withLinkedAccountId(savedLinkedAccount.getId().get()));
+    var withAccessToken =
+        linkedAccountDAO.getLinkedAccountWithAccessTokenCacheEntry(
+            savedLinkedAccount.getUserId(), savedLinkedAccount.getProvider());
+    assertEquals(
+        Optional.of(
+            new LinkedAccountWithAccessTokenCacheEntry.Builder()
+                .linkedAccount(savedLinkedAccount)
+                .accessTokenCacheEntry(accessTokenCacheEntry)
+                .build()),
+        withAccessToken);
+
+    assertEmpty(linkedAccountDAO.getLinkedAccountWithAccessTokenCacheEntry("", Provider.GITHUB));
+  }
+
   @Test
   void testUpsertUpdatedLinkedAccount() {
     var linkedAccount = TestUtils.createRandomLinkedAccount();
@@ -178,7 +218,7 @@ class LinkedAccountDAOTest extends BaseTest {
       // Assert that only the expiring linked account is returned
       assertEquals(
           List.of(savedExpiredLinkedAccount),
-          linkedAccountDAO.getExpiringLinkedAccounts(testExpirationCutoff));
+          linkedAccountDAO.getExpiringLinkedAccounts(testExpirationCutoff, 0, 100));
     }
 
     @Test
@@ -192,7 +232,7 @@ class LinkedAccountDAOTest extends BaseTest {
       // Assert that the linked account is returned
       assertEquals(
           List.of(savedLinkedAccount),
-          linkedAccountDAO.getExpiringLinkedAccounts(testExpirationCutoff));
+          linkedAccountDAO.getExpiringLinkedAccounts(testExpirationCutoff, 0, 100));
     }
 
     @Test
@@ -210,7 +250,115 @@ class LinkedAccountDAOTest extends BaseTest {
       // Assert that the linked account is returned
       assertEquals(
           List.of(savedLinkedAccount),
-          linkedAccountDAO.getExpiringLinkedAccounts(testExpirationCutoff));
+          linkedAccountDAO.getExpiringLinkedAccounts(testExpirationCutoff, 0, 100));
+    }
+
+    @Test
+    void testPagesThroughExpiringLinkedAccounts() {
+      var savedLinkedAccounts =
+          IntStream.range(0, 5)
+              .mapToObj(
+                  i -> {
+                    var savedLinkedAccount =
+                        linkedAccountDAO.upsertLinkedAccount(TestUtils.createRandomLinkedAccount());
+                    passportDAO.insertPassport(
+                        TestUtils.createRandomPassport()
+                            .withLinkedAccountId(savedLinkedAccount.getId()));
+                    return savedLinkedAccount;
+                  })
+              .toList();
+
+      var firstPage = linkedAccountDAO.getExpiringLinkedAccounts(testExpirationCutoff, 0, 3);
+      var secondPage =
+          linkedAccountDAO.getExpiringLinkedAccounts(
+              testExpirationCutoff, firstPage.get(2).getId().orElseThrow(), 3);
+
+      assertEquals(savedLinkedAccounts.subList(0, 3), firstPage);
+      assertEquals(savedLinkedAccounts.subList(3, 5), secondPage);
+    }
+  }
+
+  @Nested
+  class GetLinkedAccountsWithExpiringFenceAccountKeys {
+
+    @Test
+    void testMissingAndExpiringKeysAreListed() {
+      var expirationCutoff = Instant.now().plus(3, ChronoUnit.DAYS);
+      var withoutKey =
+          linkedAccountDAO.upsertLinkedAccount(TestUtils.createRandomLinkedAccount(Provider.FENCE));
+      var withExpiringKey =
+          saveLinkedAccountWithKey(Provider.ANVIL, expirationCutoff.minus(1, ChronoUnit.DAYS));
+      saveLinkedAccountWithKey(Provider.FENCE, expirationCutoff.plus(1, ChronoUnit.DAYS));
+      linkedAccountDAO.upsertLinkedAccount(TestUtils.createRandomLinkedAccount(Provider.GITHUB));
+      linkedAccountDAO.upsertLinkedAccount(
+          TestUtils.createRandomLinkedAccount(Provider.FENCE).withIsAuthenticated(false));
+
+      var expiring =
+          linkedAccountDAO.getLinkedAccountsWithExpiringFenceAccountKeys(
+              ProviderUtils.getFenceProviders(),
+              Timestamp.from(expirationCutoff),
+              withoutKey.getId().orElseThrow() - 1,
+              100);
+      assertEquals(List.of(withoutKey, withExpiringKey), expiring);
+
+      var secondPage =
+          linkedAccountDAO.getLinkedAccountsWithExpiringFenceAccountKeys(
+              ProviderUtils.getFenceProviders(),
+              Timestamp.from(expirationCutoff),
+              withoutKey.getId().orElseThrow(),
+              100);
+      assertEquals(List.of(withExpiringKey), secondPage);
+    }
+
+    private LinkedAccount saveLinkedAccountWithKey(Provider provider, Instant keyExpiresAt) {
+      var savedAccount =
+          linkedAccountDAO.upsertLinkedAccount(TestUtils.createRandomLinkedAccount(provider));
+      fenceAccountKeyDAO.upsertFenceAccountKey(
+          TestUtils.createRandomFenceAccountKey()
+              .withLinkedAccountId(savedAccount.getId().orElseThrow())
+              .withExpiresAt(keyExpiresAt));
+      return savedAccount;
+    }
+  }
+
+  @Nested
+  class GetLinkedAccountsWithExpiringReadAccessTokens {
+
+    @Test
+    void testOnlyReadAccessTokensAreExpiring() {
+      var readAccount =
+          linkedAccountDAO.upsertLinkedAccount(TestUtils.createRandomLinkedAccount());
+      var unreadAccount =
+          linkedAccountDAO.upsertLinkedAccount(TestUtils.createRandomLinkedAccount());
+      var accessTokenCacheEntry = TestUtils.createRandomAccessTokenCacheEntry();
+      accessTokenCacheDAO.upsertAccessTokenCacheEntry(
+          accessTokenCacheEntry.withLinkedAccountId(readAccount.getId().get()));
+      accessTokenCacheDAO.upsertAccessTokenCacheEntry(
+          accessTokenCacheEntry.withLinkedAccountId(unreadAccount.getId().get()));
+
+      var lastReadAt = Instant.now();
+      assertEquals(
+          1,
+          accessTokenCacheDAO.updateLastReadAt(
+              List.of(readAccount.getId().get()), Timestamp.from(lastReadAt)));
+      var readSince = Timestamp.from(lastReadAt.minusSeconds(1));
+
+      var expiringLinkedAccounts =
+          linkedAccountDAO.getLinkedAccountsWithExpiringReadAccessTokens(
+              Timestamp.from(accessTokenCacheEntry.getExpiresAt().plusSeconds(1)),
+              readSince,
+              0,
+              Integer.MAX_VALUE);
+      assertTrue(expiringLinkedAccounts.contains(readAccount));
+      assertFalse(expiringLinkedAccounts.contains(unreadAccount));
+
+      var notYetExpiringLinkedAccounts =
+          linkedAccountDAO.getLinkedAccountsWithExpiringReadAccessTokens(
+              Timestamp.from(accessTokenCacheEntry.getExpiresAt().minusSeconds(1)),
+              readSince,
+              0,
+              Integer.MAX_VALUE);
+      assertFalse(notYetExpiringLinkedAccounts.contains(readAccount));
     }
   }
 
@@ -3,6 +3,7 @@ package bio.terra.externalcreds.services;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -178,6 +179,46 @@ class AccessTokenCacheServiceTest extends BaseTest {
     verify(auditLoggerMock, never()).logEvent(any());
   }
 
+  @Test
+  void testGetAccessTokenServedFromLocalCache() {
+    var provider = Provider.FENCE;
+    var linkedAccount = TestUtils.createRandomLinkedAccount(provider).withId(random.nextInt());
+    var accessToken = UUID.randomUUID().toString();
+    var tokenExpiresAt = Instant.now().plus(1, ChronoUnit.HOURS);
+    var scopes = Set.of("scope1", "scope2");
+
+    when(accessTokenCacheDAO.getAccessTokenCacheEntry(linkedAccount))
+        .thenReturn(
+            Optional.of(
+                new AccessTokenCacheEntry.Builder()
+                    .linkedAccountId(linkedAccount.getId().get())
+                    .accessToken(accessToken)
+                    .expiresAt(tokenExpiresAt)
+                    .build()));
+
+    var auditLogEventBuilder =
+        new AuditLogEvent.Builder()
+            .provider(provider)
+            .userId(linkedAccount.getUserId())
+            .clientIP(clientIP);
+    assertEquals(
+        accessToken,
+        accessTokenCacheService.getLinkedAccountAccessToken(
+            linkedAccount, scopes, auditLogEventBuilder));
+    assertEquals(
+        accessToken,
+        accessTokenCacheService.getLinkedAccountAccessToken(
+            linkedAccount, scopes, auditLogEventBuilder));
+
+    verify(accessTokenCacheDAO, times(1)).getAccessTokenCacheEntry(linkedAccount);
+
+    accessTokenCacheService.invalidateLocalCacheEntry(linkedAccount.getId().get());
+    accessTokenCacheService.getLinkedAccountAccessToken(
+        linkedAccount, scopes, auditLogEventBuilder);
+    verify(accessTokenCacheDAO, times(2)).getAccessTokenCacheEntry(linkedAccount);
+    verify(oAuth2ServiceMock, never()).authorizeWithRefreshToken(any(), any(), any());
+  }
+
   @Test
   void testGetFenceProviderAccessTokenCacheExpired() {
     var provider = Provider.FENCE;
@@ -0,0 +1,176 @@
+package bio.terra.externalcreds.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import bio.terra.externalcreds.ExternalCredsException;
+import bio.terra.externalcreds.TestUtils;
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import bio.terra.externalcreds.dataAccess.AccessTokenCacheDAO;
+import bio.terra.externalcreds.dataAccess.DistributedLockDAO;
+import bio.terra.externalcreds.generated.model.Provider;
+import bio.terra.externalcreds.models.AccessTokenCacheEntry;
+import bio.terra.externalcreds.models.LinkedAccount;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+class AccessTokenRefreshCoordinatorTest {
+  private final DistributedLockDAO distributedLockDAO = mock(DistributedLockDAO.class);
+  private final AccessTokenCacheDAO accessTokenCacheDAO = mock(AccessTokenCacheDAO.class);
+  private final ExternalCredsConfig externalCredsConfig = ExternalCredsConfig.create();
+
+  private final AccessTokenRefreshCoordinator accessTokenRefreshCoordinator =
+      new AccessTokenRefreshCoordinator(
+          distributedLockDAO, accessTokenCacheDAO, externalCredsConfig);
+
+  @Test
+  void testConcurrentRefreshesAreCoalesced() throws Exception {
+    var linkedAccount = TestUtils.createRandomLinkedAccount(Provider.GITHUB).withId(1);
+    var tokenCacheEntry = createTokenCacheEntry(1);
+    var exchangeCount = new AtomicInteger();
+    var exchangeStarted = new CountDownLatch(1);
+    var finishExchange = new CountDownLatch(1);
+
+    var executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<AccessTokenCacheEntry> leader =
+          executor.submit(
+              () ->
+                  accessTokenRefreshCoordinator.refresh(
+                      linkedAccount,
+                      entry -> true,
+                      () -> {
+                        exchangeCount.incrementAndGet();
+                        exchangeStarted.countDown();
+                        await(finishExchange);
+                        return tokenCacheEntry;
+                      }));
+      exchangeStarted.await(10, TimeUnit.SECONDS);
+      Future<AccessTokenCacheEntry> follower =
+          executor.submit(
+              () ->
+                  accessTokenRefreshCoordinator.refresh(
+                      linkedAccount,
+                      entry -> true,
+                      () -> {
+                        exchangeCount.incrementAndGet();
+                        return createTokenCacheEntry(1);
+                      }));
+      // the follower either waits on the in flight refresh or, if not coalesced, finishes its own
+      var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (accessTokenRefreshCoordinator.getWaitingRefreshCount(1) == 0
+          && !follower.isDone()
+          && System.nanoTime() < deadline) {
+        Thread.onSpinWait();
+      }
+      finishExchange.countDown();
+
+      assertEquals(tokenCacheEntry, leader.get(10, TimeUnit.SECONDS));
+      assertEquals(tokenCacheEntry, follower.get(10, TimeUnit.SECONDS));
+      assertEquals(1, exchangeCount.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testFailedRefreshIsNotReused() {
+    var linkedAccount = TestUtils.createRandomLinkedAccount(Provider.GITHUB).withId(2);
+    var tokenCacheEntry = createTokenCacheEntry(2);
+
+    assertThrows(
+        ExternalCredsException.class,
+        () ->
+            accessTokenRefreshCoordinator.refresh(
+                linkedAccount,
+                entry -> true,
+                () -> {
+                  throw new ExternalCredsException("exchange failed");
+                }));
+
+    assertEquals(
+        tokenCacheEntry,
+        accessTokenRefreshCoordinator.refresh(linkedAccount, entry -> true, () -> tokenCacheEntry));
+  }
+
+  @Test
+  void testDistributedRefreshUsesTokenSavedByLockHolder() {
+    externalCredsConfig.setDistributedAccessTokenRefreshEnabled(true);
+    var linkedAccount = TestUtils.createRandomLinkedAccount(Provider.GITHUB).withId(3);
+    var tokenCacheEntry = createTokenCacheEntry(3);
+
+    runActionsWithLock(linkedAccount);
+    when(accessTokenCacheDAO.getAccessTokenCacheEntry(linkedAccount))
+        .thenReturn(Optional.of(tokenCacheEntry));
+
+    assertEquals(
+        tokenCacheEntry,
+        accessTokenRefreshCoordinator.refresh(
+            linkedAccount,
+            entry -> true,
+            () -> {
+              throw new AssertionError("the lock holder's token should be used");
+            }));
+  }
+
+  @Test
+  void testDistributedRefreshExchangesWhileHoldingLock() {
+    externalCredsConfig.setDistributedAccessTokenRefreshEnabled(true);
+    var linkedAccount = TestUtils.createRandomLinkedAccount(Provider.GITHUB).withId(4);
+    var tokenCacheEntry = createTokenCacheEntry(4);
+
+    runActionsWithLock(linkedAccount);
+    when(accessTokenCacheDAO.getAccessTokenCacheEntry(linkedAccount))
+        .thenReturn(Optional.of(createTokenCacheEntry(4)));
+
+    assertEquals(
+        tokenCacheEntry,
+        accessTokenRefreshCoordinator.refresh(
+            linkedAccount, entry -> false, () -> tokenCacheEntry));
+    verify(distributedLockDAO)
+        .runWithLock(
+            eq("refreshAccessToken-" + linkedAccount.getProvider()),
+            eq(linkedAccount.getUserId()),
+            any(),
+            any());
+  }
+
+  private void runActionsWithLock(LinkedAccount linkedAccount) {
+    when(distributedLockDAO.runWithLock(
+            eq("refreshAccessToken-" + linkedAccount.getProvider()),
+            eq(linkedAccount.getUserId()),
+            any(),
+            any()))
+        .thenAnswer(invocation -> invocation.getArgument(3, Supplier.class).get());
+  }
+
+  private AccessTokenCacheEntry createTokenCacheEntry(int linkedAccountId) {
+    return new AccessTokenCacheEntry.Builder()
+        .linkedAccountId(linkedAccountId)
+        .accessToken(UUID.randomUUID().toString())
+        .expiresAt(Instant.now().plus(1, ChronoUnit.HOURS))
+        .build();
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package bio.terra.externalcreds.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import bio.terra.externalcreds.generated.model.Provider;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+
+class ClientRegistrationCacheTest {
+  private final AtomicInteger loadCount = new AtomicInteger();
+  private final AtomicBoolean loadFails = new AtomicBoolean();
+
+  // refreshes run on the calling thread so their results can be checked right away
+  private final ClientRegistrationCache cache =
+      new ClientRegistrationCache(
+          "testClients",
+          this::load,
+          Duration.ofHours(1),
+          Duration.ofHours(6),
+          new SimpleMeterRegistry(),
+          MoreExecutors.newDirectExecutorService());
+
+  @Test
+  void testLoadsOnlyOnce() {
+    var client = cache.get(Provider.RAS);
+
+    assertEquals(client, cache.get(Provider.RAS));
+    assertEquals(1, loadCount.get());
+  }
+
+  @Test
+  void testRefreshReplacesClient() {
+    cache.get(Provider.RAS);
+
+    cache.refreshAll();
+
+    assertEquals("client-2", cache.get(Provider.RAS).getClientId());
+    assertEquals(2, loadCount.get());
+  }
+
+  @Test
+  void testFailedRefreshKeepsClient() {
+    var client = cache.get(Provider.RAS);
+
+    loadFails.set(true);
+    cache.refreshAll();
+
+    assertEquals(client, cache.get(Provider.RAS));
+  }
+
+  @Test
+  void testLoadExceptionsAreNotWrapped() {
+    loadFails.set(true);
+
+    assertThrows(IllegalArgumentException.class, () -> cache.get(Provider.RAS));
+  }
+
+  private ClientRegistration load(Provider provider) {
+    var count = loadCount.incrementAndGet();
+    if (loadFails.get()) {
+      throw new IllegalArgumentException("issuer unavailable");
+    }
+    return ClientRegistration.withRegistrationId(provider.toString())
+        .authorizationGrantType(AuthorizationGrantType.CLIENT_CREDENTIALS)
+        .clientId("client-" + count)
+        .tokenUri("http://localhost/token")
+        .build();
+  }
+}
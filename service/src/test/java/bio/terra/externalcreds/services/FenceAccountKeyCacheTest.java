@@ -0,0 +1,117 @@
+package bio.terra.externalcreds.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import bio.terra.externalcreds.TestUtils;
+import bio.terra.externalcreds.dataAccess.DatabaseNotificationListener;
+import bio.terra.externalcreds.generated.model.Provider;
+import bio.terra.externalcreds.models.LinkedAccountWithFenceAccountKey;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class FenceAccountKeyCacheTest {
+  private final DatabaseNotificationListener databaseNotificationListener =
+      mock(DatabaseNotificationListener.class);
+  private final FenceAccountKeyCache cache =
+      new FenceAccountKeyCache(databaseNotificationListener);
+  private final String userId = UUID.randomUUID().toString();
+  private final Provider provider = Provider.FENCE;
+
+  @Test
+  void testLoadsOnlyOnce() {
+    var loadCount = new AtomicInteger();
+    var entry = createEntry(Instant.now().plus(1, ChronoUnit.HOURS));
+
+    cache.get(userId, provider, () -> load(loadCount, entry));
+    var cachedEntry = cache.get(userId, provider, () -> load(loadCount, entry));
+
+    assertEquals(Optional.of(entry), cachedEntry);
+    assertEquals(1, loadCount.get());
+  }
+
+  @Test
+  void testExpiredKeyNotCached() {
+    var loadCount = new AtomicInteger();
+    var entry = createEntry(Instant.now().minus(1, ChronoUnit.SECONDS));
+
+    cache.get(userId, provider, () -> load(loadCount, entry));
+    cache.get(userId, provider, () -> load(loadCount, entry));
+
+    assertEquals(2, loadCount.get());
+  }
+
+  @Test
+  void testMissingKeyNotCached() {
+    var loadCount = new AtomicInteger();
+
+    cache.get(userId, provider, () -> load(loadCount, null));
+    cache.get(userId, provider, () -> load(loadCount, null));
+
+    assertEquals(2, loadCount.get());
+  }
+
+  @Test
+  void testInvalidateWhenLinkDeleted() {
+    var loadCount = new AtomicInteger();
+    var entry = createEntry(Instant.now().plus(1, ChronoUnit.HOURS));
+
+    cache.get(userId, provider, () -> load(loadCount, entry));
+    cache.invalidate(userId, provider);
+    cache.get(userId, provider, () -> load(loadCount, entry));
+
+    assertEquals(2, loadCount.get());
+  }
+
+  @Test
+  void testInvalidateWhenKeySaved() {
+    var keySavedListener = ArgumentCaptor.forClass(IntConsumer.class);
+    verify(databaseNotificationListener).addKeySavedListener(keySavedListener.capture());
+    var loadCount = new AtomicInteger();
+    var entry = createEntry(Instant.now().plus(1, ChronoUnit.HOURS));
+
+    cache.get(userId, provider, () -> load(loadCount, entry));
+    keySavedListener.getValue().accept(entry.getFenceAccountKey().getLinkedAccountId() + 1);
+    cache.get(userId, provider, () -> load(loadCount, entry));
+    assertEquals(1, loadCount.get());
+
+    keySavedListener.getValue().accept(entry.getFenceAccountKey().getLinkedAccountId());
+    cache.get(userId, provider, () -> load(loadCount, entry));
+    assertEquals(2, loadCount.get());
+  }
+
+  @Test
+  void testInvalidateWhenLinkDeletedOnAnyInstance() {
+    var linkedAccountDeletedListener = ArgumentCaptor.forClass(IntConsumer.class);
+    verify(databaseNotificationListener)
+        .addLinkedAccountDeletedListener(linkedAccountDeletedListener.capture());
+    var loadCount = new AtomicInteger();
+    var entry = createEntry(Instant.now().plus(1, ChronoUnit.HOURS));
+
+    cache.get(userId, provider, () -> load(loadCount, entry));
+    linkedAccountDeletedListener.getValue().accept(entry.getFenceAccountKey().getLinkedAccountId());
+    cache.get(userId, provider, () -> load(loadCount, entry));
+
+    assertEquals(2, loadCount.get());
+  }
+
+  private Optional<LinkedAccountWithFenceAccountKey> load(
+      AtomicInteger loadCount, LinkedAccountWithFenceAccountKey entry) {
+    loadCount.incrementAndGet();
+    return Optional.ofNullable(entry);
+  }
+
+  private LinkedAccountWithFenceAccountKey createEntry(Instant expiresAt) {
+    return new LinkedAccountWithFenceAccountKey.Builder()
+        .linkedAccount(TestUtils.createRandomLinkedAccount(provider).withUserId(userId))
+        .fenceAccountKey(TestUtils.createRandomFenceAccountKey().withExpiresAt(expiresAt))
+        .build();
+  }
+}
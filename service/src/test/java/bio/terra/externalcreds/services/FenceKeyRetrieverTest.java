@@ -1,9 +1,10 @@
 package bio.terra.externalcreds.services;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -18,12 +19,18 @@ import bio.terra.externalcreds.config.ExternalCredsConfig;
 import bio.terra.externalcreds.dataAccess.DistributedLockDAO;
 import bio.terra.externalcreds.exception.DistributedLockException;
 import bio.terra.externalcreds.generated.model.Provider;
-import bio.terra.externalcreds.models.DistributedLock;
 import bio.terra.externalcreds.models.LinkedAccount;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.mockserver.integration.ClientAndServer;
@@ -34,16 +41,20 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import org.springframework.security.oauth2.core.OAuth2AccessToken;
-import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
-import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
 import org.springframework.security.oauth2.core.OAuth2RefreshToken;
 import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
+// runWithLock commits in its own transaction, which does not see rows written in a test transaction
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
 class FenceKeyRetrieverTest extends BaseTest {
 
   @Autowired private FenceKeyRetriever fenceKeyRetriever;
   @Autowired private LinkedAccountService linkedAccountService;
 
+  @Autowired private DataSource dataSource;
+
   @SpyBean private DistributedLockDAO distributedLockDAO;
   @SpyBean private FenceAccountKeyService fenceAccountKeyService;
 
@@ -52,6 +63,23 @@ class FenceKeyRetrieverTest extends BaseTest {
   @MockBean private OAuth2Service oAuth2Service;
   @MockBean private AccessTokenCacheService accessTokenCacheService;
 
+  private final List<LinkedAccount> linkedAccounts = new ArrayList<>();
+
+  @AfterEach
+  void deleteLinkedAccounts() {
+    linkedAccounts.forEach(
+        linkedAccount ->
+            linkedAccountService.deleteLinkedAccount(
+                linkedAccount.getUserId(), linkedAccount.getProvider()));
+  }
+
+  private LinkedAccount createLinkedAccount(Provider provider) {
+    var linkedAccount =
+        linkedAccountService.upsertLinkedAccount(TestUtils.createRandomLinkedAccount(provider));
+    linkedAccounts.add(linkedAccount);
+    return linkedAccount;
+  }
+
   @Nested
   class FenceAccountKeyLocking {
 
@@ -60,8 +88,7 @@ class FenceKeyRetrieverTest extends BaseTest {
       var provider = Provider.FENCE;
       var keyJson = "{ \"name\": \"testKeyJson\", \"client_email\": \"foo@bar.com\"}";
 
-      var linkedAccount =
-          linkedAccountService.upsertLinkedAccount(TestUtils.createRandomLinkedAccount(provider));
+      var linkedAccount = createLinkedAccount(provider);
 
       setupOAuthMocks(linkedAccount);
 
@@ -96,8 +123,7 @@ class FenceKeyRetrieverTest extends BaseTest {
       var provider = Provider.FENCE;
       var keyJson = "{ \"name\": \"testKeyJson\"}";
 
-      var linkedAccount =
-          linkedAccountService.upsertLinkedAccount(TestUtils.createRandomLinkedAccount(provider));
+      var linkedAccount = createLinkedAccount(provider);
 
       setupOAuthMocks(linkedAccount);
 
@@ -132,8 +158,7 @@ class FenceKeyRetrieverTest extends BaseTest {
       var provider = Provider.FENCE;
       var keyJson = "notJson";
 
-      var linkedAccount =
-          linkedAccountService.upsertLinkedAccount(TestUtils.createRandomLinkedAccount(provider));
+      var linkedAccount = createLinkedAccount(provider);
 
       setupOAuthMocks(linkedAccount);
 
@@ -186,57 +211,159 @@ class FenceKeyRetrieverTest extends BaseTest {
     }
 
     @Test
-    void testRetriesIfLockPresent() {
+    void testRetriesIfLockPresent() throws SQLException {
       var provider = Provider.FENCE;
-      var linkedAccount =
-          linkedAccountService.upsertLinkedAccount(TestUtils.createRandomLinkedAccount(provider));
-
-      var newLock =
-          new DistributedLock.Builder()
-              .lockName("createFenceKey-" + linkedAccount.getProvider())
-              .userId(linkedAccount.getUserId())
-              .expiresAt(Instant.now().plus(2, ChronoUnit.MINUTES))
-              .build();
-
-      distributedLockDAO.insertDistributedLock(newLock);
+      var linkedAccount = createLinkedAccount(provider);
 
+      when(externalCredsConfig.getProviderProperties(provider))
+          .thenReturn(TestUtils.createRandomProvider());
       when(externalCredsConfig.getDistributedLockConfiguration())
-          .thenReturn(DistributedLockConfiguration.create().setLockTimeout(Duration.ofSeconds(30)));
+          .thenReturn(
+              DistributedLockConfiguration.create().setLockTimeout(Duration.ofMillis(100)));
 
-      assertThrows(
-          DistributedLockException.class,
-          () -> fenceKeyRetriever.getOrCreateFenceAccountKey(linkedAccount));
+      try (var connection = holdLock(linkedAccount)) {
+        assertThrows(
+            DistributedLockException.class,
+            () -> fenceKeyRetriever.getOrCreateFenceAccountKey(linkedAccount));
+        connection.rollback();
+      }
 
       // Test config is set to 3 retries
       verify(fenceAccountKeyService, times(3)).getFenceAccountKey(linkedAccount);
     }
 
     @Test
-    void testRemovesLockIfKeyRetrievalFails() {
+    void testReleasesLockIfKeyRetrievalFails() throws SQLException {
       var provider = Provider.FENCE;
-      var linkedAccount =
-          linkedAccountService.upsertLinkedAccount(TestUtils.createRandomLinkedAccount(provider));
+      var linkedAccount = createLinkedAccount(provider);
 
-      var scopes = Set.of("scope1", "scope2");
       var lockName = "createFenceKey-" + linkedAccount.getProvider();
 
-      var clientRegistration = mock(ClientRegistration.class);
-      when(providerOAuthClientCache.getProviderClient(any())).thenReturn(clientRegistration);
-      when(oAuth2Service.authorizeWithRefreshToken(
-              clientRegistration,
-              new OAuth2RefreshToken(linkedAccount.getRefreshToken(), null),
-              scopes))
-          .thenThrow(new OAuth2AuthenticationException(OAuth2ErrorCodes.SERVER_ERROR));
+      when(accessTokenCacheService.getLinkedAccountAccessToken(eq(linkedAccount), any(), any()))
+          .thenReturn("accessToken");
       when(externalCredsConfig.getDistributedLockConfiguration())
           .thenReturn(DistributedLockConfiguration.create().setLockTimeout(Duration.ofSeconds(30)));
 
-      assertThrows(
-          ExternalCredsException.class,
-          () -> fenceKeyRetriever.getOrCreateFenceAccountKey(linkedAccount));
+      try (var mockServer = ClientAndServer.startClientAndServer()) {
+        var credentialsPath = "/test/credentials/";
+        when(externalCredsConfig.getProviderProperties(provider))
+            .thenReturn(
+                TestUtils.createRandomProvider()
+                    .setKeyEndpoint("http://localhost:" + mockServer.getPort() + credentialsPath));
+        mockServer
+            .when(HttpRequest.request(credentialsPath).withMethod("POST"))
+            .respond(HttpResponse.response().withStatusCode(500));
+
+        assertThrows(
+            ExternalCredsException.class,
+            () -> fenceKeyRetriever.getOrCreateFenceAccountKey(linkedAccount));
+      }
 
       verify(distributedLockDAO)
-          .insertDistributedLock(argThat(lock -> lock.getLockName().equals(lockName)));
-      verify(distributedLockDAO).deleteDistributedLock(lockName, linkedAccount.getUserId());
+          .runWithLock(eq(lockName), eq(linkedAccount.getUserId()), any(), any());
+      // another session can take the lock right away
+      try (var connection = dataSource.getConnection();
+          var statement =
+              connection.prepareStatement(
+                  "SELECT pg_try_advisory_lock(hashtextextended(?, 0)), "
+                      + "pg_advisory_unlock(hashtextextended(?, 0))")) {
+        var lockKey = lockName + ":" + linkedAccount.getUserId();
+        statement.setString(1, lockKey);
+        statement.setString(2, lockKey);
+        try (var resultSet = statement.executeQuery()) {
+          assertTrue(resultSet.next());
+          assertTrue(resultSet.getBoolean(1));
+        }
+      }
+    }
+
+    private Connection holdLock(LinkedAccount linkedAccount) throws SQLException {
+      var connection = dataSource.getConnection();
+      connection.setAutoCommit(false);
+      try (var statement =
+          connection.prepareStatement("SELECT pg_advisory_xact_lock(hashtextextended(?, 0))")) {
+        statement.setString(
+            1, "createFenceKey-" + linkedAccount.getProvider() + ":" + linkedAccount.getUserId());
+        statement.execute();
+      }
+      return connection;
+    }
+  }
+
+  @Nested
+  class FenceAccountKeyRotation {
+    private final String credentialsPath = "/test/credentials";
+    private final String newKeyJson =
+        "{ \"private_key_id\": \"newKeyId\", \"client_email\": \"foo@bar.com\"}";
+
+    @Test
+    void testRotateReplacesExpiringKeyAndRevokesIt() {
+      var linkedAccount = createLinkedAccount(Provider.FENCE);
+      fenceAccountKeyService.upsertFenceAccountKey(
+          TestUtils.createRandomFenceAccountKey()
+              .withLinkedAccountId(linkedAccount.getId().orElseThrow())
+              .withKeyJson("{ \"private_key_id\": \"oldKeyId\"}")
+              .withExpiresAt(Instant.now().plus(1, ChronoUnit.DAYS)));
+      setupMocks(linkedAccount);
+
+      try (var mockServer = ClientAndServer.startClientAndServer()) {
+        mockKeyEndpoint(linkedAccount, mockServer);
+
+        assertTrue(
+            fenceKeyRetriever.rotateFenceAccountKey(
+                linkedAccount, Instant.now().plus(3, ChronoUnit.DAYS)));
+
+        assertEquals(
+            newKeyJson,
+            fenceAccountKeyService.getFenceAccountKey(linkedAccount).orElseThrow().getKeyJson());
+        mockServer.verify(
+            HttpRequest.request(credentialsPath + "/oldKeyId")
+                .withMethod("DELETE")
+                .withHeader("Authorization", "Bearer accessToken"));
+      }
+    }
+
+    @Test
+    void testRotateSkipsKeyNotExpiring() {
+      var linkedAccount = createLinkedAccount(Provider.FENCE);
+      var existingKey =
+          fenceAccountKeyService.upsertFenceAccountKey(
+              TestUtils.createRandomFenceAccountKey()
+                  .withLinkedAccountId(linkedAccount.getId().orElseThrow())
+                  .withExpiresAt(Instant.now().plus(10, ChronoUnit.DAYS)));
+      setupMocks(linkedAccount);
+
+      try (var mockServer = ClientAndServer.startClientAndServer()) {
+        mockKeyEndpoint(linkedAccount, mockServer);
+
+        assertFalse(
+            fenceKeyRetriever.rotateFenceAccountKey(
+                linkedAccount, Instant.now().plus(3, ChronoUnit.DAYS)));
+
+        assertEquals(
+            Optional.of(existingKey), fenceAccountKeyService.getFenceAccountKey(linkedAccount));
+        mockServer.verifyZeroInteractions();
+      }
+    }
+
+    private void setupMocks(LinkedAccount linkedAccount) {
+      when(accessTokenCacheService.getLinkedAccountAccessToken(eq(linkedAccount), any(), any()))
+          .thenReturn("accessToken");
+      when(externalCredsConfig.getDistributedLockConfiguration())
+          .thenReturn(DistributedLockConfiguration.create().setLockTimeout(Duration.ofSeconds(30)));
+    }
+
+    private void mockKeyEndpoint(LinkedAccount linkedAccount, ClientAndServer mockServer) {
+      when(externalCredsConfig.getProviderProperties(linkedAccount.getProvider()))
+          .thenReturn(
+              TestUtils.createRandomProvider()
+                  .setKeyEndpoint("http://localhost:" + mockServer.getPort() + credentialsPath));
+      mockServer
+          .when(HttpRequest.request(credentialsPath).withMethod("POST"))
+          .respond(HttpResponse.response().withStatusCode(200).withBody(newKeyJson));
+      mockServer
+          .when(HttpRequest.request(credentialsPath + "/oldKeyId").withMethod("DELETE"))
+          .respond(HttpResponse.response().withStatusCode(204));
     }
   }
 }
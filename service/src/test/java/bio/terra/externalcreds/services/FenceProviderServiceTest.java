@@ -3,7 +3,10 @@ package bio.terra.externalcreds.services;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import bio.terra.common.exception.BadRequestException;
@@ -179,4 +182,14 @@ class FenceProviderServiceTest extends BaseTest {
 
     assertEmpty(linkedAccount);
   }
+
+  @Test
+  void testKeyRotationOffWithoutPositiveMaxPerRun() {
+    when(externalCredsConfig.getFenceAccountKeyRotationMaxPerRun()).thenReturn(0, -1);
+
+    assertEquals(0, fenceProviderService.rotateExpiringFenceAccountKeys());
+    assertEquals(0, fenceProviderService.rotateExpiringFenceAccountKeys());
+    verify(linkedAccountService, never())
+        .getLinkedAccountsWithExpiringFenceAccountKeys(any(), any(), anyInt(), anyInt());
+  }
 }
@@ -0,0 +1,153 @@
+package bio.terra.externalcreds.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import bio.terra.externalcreds.config.JwksCacheConfiguration;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.model.MediaType;
+import org.mockserver.verify.VerificationTimes;
+
+class JwksCacheTest {
+  private static final String JWKS_PATH = "/jwks.json";
+
+  private ClientAndServer mockServer;
+  private URI jwksUri;
+  private RSAKey currentKey;
+  private RSAKey rotatedKey;
+
+  @BeforeEach
+  void setUp() throws JOSEException {
+    mockServer = ClientAndServer.startClientAndServer();
+    jwksUri = URI.create("http://localhost:" + mockServer.getPort() + JWKS_PATH);
+    currentKey = new RSAKeyGenerator(2048).keyID("current").generate();
+    rotatedKey = new RSAKeyGenerator(2048).keyID("rotated").generate();
+  }
+
+  @AfterEach
+  void tearDown() {
+    mockServer.stop();
+  }
+
+  @Test
+  void testKeySetLoadedOnce() throws Exception {
+    mockJwksResponse(Times.unlimited(), currentKey);
+    var jwkSource = createJwksCache(JwksCacheConfiguration.create()).getJwkSource(jwksUri);
+
+    jwkSource.get(selectKey("current"), null);
+    var jwks = jwkSource.get(selectKey("current"), null);
+
+    assertEquals(1, jwks.size());
+    mockServer.verify(HttpRequest.request(JWKS_PATH), VerificationTimes.once());
+  }
+
+  @Test
+  void testUnknownKeyReloadsKeySet() throws Exception {
+    mockJwksResponse(Times.once(), currentKey);
+    mockJwksResponse(Times.unlimited(), currentKey, rotatedKey);
+    var jwkSource =
+        createJwksCache(JwksCacheConfiguration.create().setMinRefreshInterval(Duration.ZERO))
+            .getJwkSource(jwksUri);
+
+    jwkSource.get(selectKey("current"), null);
+    var jwks = jwkSource.get(selectKey("rotated"), null);
+
+    assertEquals(rotatedKey.toPublicJWK(), jwks.get(0));
+    mockServer.verify(HttpRequest.request(JWKS_PATH), VerificationTimes.exactly(2));
+  }
+
+  @Test
+  void testUnknownKeyReloadsAreRateLimited() throws Exception {
+    mockJwksResponse(Times.unlimited(), currentKey);
+    var jwkSource = createJwksCache(JwksCacheConfiguration.create()).getJwkSource(jwksUri);
+
+    jwkSource.get(selectKey("current"), null);
+    for (var i = 0; i < 5; i++) {
+      assertTrue(jwkSource.get(selectKey("unknown"), null).isEmpty());
+    }
+
+    mockServer.verify(HttpRequest.request(JWKS_PATH), VerificationTimes.once());
+  }
+
+  @Test
+  void testFailedReloadKeepsKeySet() throws Exception {
+    mockJwksResponse(Times.once(), currentKey);
+    mockServer
+        .when(HttpRequest.request(JWKS_PATH).withMethod("GET"))
+        .respond(HttpResponse.response().withStatusCode(500));
+    var jwksCache =
+        createJwksCache(JwksCacheConfiguration.create().setRefreshInterval(Duration.ZERO));
+
+    jwksCache.getJwkSet(jwksUri);
+    jwksCache.reloadStaleKeySets();
+
+    assertEquals(currentKey.toPublicJWK(), jwksCache.getJwkSet(jwksUri).getKeyByKeyId("current"));
+    mockServer.verify(HttpRequest.request(JWKS_PATH), VerificationTimes.exactly(2));
+  }
+
+  @Test
+  void testDecoderVerifiesTokenSignedWithRotatedKeyOfOtherAlgorithm() throws Exception {
+    var rotatedEcKey = new ECKeyGenerator(Curve.P_256).keyID("rotated").generate();
+    mockJwksResponse(Times.once(), currentKey);
+    mockJwksResponse(Times.unlimited(), currentKey, rotatedEcKey);
+    var jwksCache =
+        createJwksCache(JwksCacheConfiguration.create().setMinRefreshInterval(Duration.ZERO));
+    // the decoder is built while the key set only has an RSA key
+    var jwtDecoder = ExternalCredsJwtDecoders.fromJku(jwksUri, jwksCache);
+    jwksCache.getJwkSet(jwksUri);
+
+    var jwt =
+        new SignedJWT(
+            new JWSHeader.Builder(JWSAlgorithm.ES256).keyID("rotated").build(),
+            new JWTClaimsSet.Builder()
+                .subject("subject")
+                .expirationTime(Date.from(Instant.now().plus(Duration.ofMinutes(5))))
+                .build());
+    jwt.sign(new ECDSASigner(rotatedEcKey));
+
+    assertEquals("subject", jwtDecoder.decode(jwt.serialize()).getSubject());
+  }
+
+  private JwksCache createJwksCache(JwksCacheConfiguration jwksCacheConfig) {
+    return new JwksCache(ExternalCredsConfig.create().setJwksCache(jwksCacheConfig));
+  }
+
+  private void mockJwksResponse(Times times, JWK... keys) {
+    mockServer
+        .when(HttpRequest.request(JWKS_PATH).withMethod("GET"), times)
+        .respond(
+            HttpResponse.response(new JWKSet(List.<JWK>of(keys)).toString())
+                .withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON));
+  }
+
+  private static JWKSelector selectKey(String keyId) {
+    return new JWKSelector(new JWKMatcher.Builder().keyID(keyId).build());
+  }
+}
@@ -217,6 +217,47 @@ public class LinkedAccountServiceTest extends BaseTest {
       verify(eventPublisherMock, times(1)).publishAuthorizationChangeEvent(any());
     }
 
+    @Test
+    void testUnchangedVisasKeepTheirRows() {
+      var linkedAccount = TestUtils.createRandomLinkedAccount();
+      var passport = TestUtils.createRandomPassport();
+      var visa1 = TestUtils.createRandomVisa().withVisaType("type1");
+      var visa2 = TestUtils.createRandomVisa().withVisaType("type2");
+
+      setupVisaComparatorMocks(visa1, visa2);
+
+      var saved =
+          linkedAccountService.upsertLinkedAccountWithPassportAndVisas(
+              new LinkedAccountWithPassportAndVisas.Builder()
+                  .linkedAccount(linkedAccount)
+                  .passport(passport)
+                  .visas(List.of(visa1, visa2))
+                  .build());
+
+      // upsert the same visas with a newer passport and one visa removed
+      var newPassport = TestUtils.createRandomPassport();
+      var resaved =
+          linkedAccountService.upsertLinkedAccountWithPassportAndVisas(
+              new LinkedAccountWithPassportAndVisas.Builder()
+                  .linkedAccount(linkedAccount)
+                  .passport(newPassport)
+                  .visas(List.of(visa1))
+                  .build());
+
+      assertEquals(saved.getPassport().get().getId(), resaved.getPassport().get().getId());
+      assertEquals(saved.getVisas().get(0).getId(), resaved.getVisas().get(0).getId());
+      assertEquals(
+          newPassport,
+          passportDAO
+              .getPassport(linkedAccount.getUserId(), linkedAccount.getProvider())
+              .get()
+              .withId(Optional.empty())
+              .withLinkedAccountId(Optional.empty()));
+      assertEquals(
+          resaved.getVisas(),
+          visaDAO.listVisas(linkedAccount.getUserId(), linkedAccount.getProvider()));
+    }
+
     @Test
     void testVisaChangeEmitsEvent() {
       var linkedAccount = TestUtils.createRandomLinkedAccount();
@@ -0,0 +1,87 @@
+package bio.terra.externalcreds.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.model.MediaType;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+
+/** Requests go through the pooled http client and the token RestTemplate built by OAuth2Service */
+class OAuth2ServiceHttpClientTest {
+  private static final String TOKEN_PATH = "/token";
+
+  private ClientAndServer mockServer;
+  private OAuth2Service oAuth2Service;
+  private ClientRegistration providerClient;
+
+  @BeforeEach
+  void setUp() {
+    mockServer = ClientAndServer.startClientAndServer();
+    oAuth2Service = new OAuth2Service(ExternalCredsConfig.create(), new SimpleMeterRegistry());
+    providerClient =
+        ClientRegistration.withRegistrationId("test")
+            .clientId("clientId")
+            .clientSecret("clientSecret")
+            .authorizationGrantType(AuthorizationGrantType.REFRESH_TOKEN)
+            .tokenUri("http://localhost:" + mockServer.getPort() + TOKEN_PATH)
+            .build();
+  }
+
+  @AfterEach
+  void tearDown() {
+    oAuth2Service.closeHttpClient();
+    mockServer.stop();
+  }
+
+  @Test
+  void testTokenResponseIsRead() {
+    mockTokenResponse(
+        200,
+        "{\"access_token\": \"accessToken\", \"token_type\": \"bearer\", \"expires_in\": 3600,"
+            + " \"refresh_token\": \"newRefreshToken\"}");
+
+    var tokenResponse =
+        oAuth2Service.authorizeWithRefreshToken(
+            providerClient, new OAuth2RefreshToken("refreshToken", null), Set.of());
+
+    assertEquals("accessToken", tokenResponse.getAccessToken().getTokenValue());
+    assertEquals("newRefreshToken", tokenResponse.getRefreshToken().getTokenValue());
+  }
+
+  @Test
+  void testOAuth2ErrorResponseIsThrown() {
+    mockTokenResponse(
+        400, "{\"error\": \"invalid_grant\", \"error_description\": \"refresh token revoked\"}");
+
+    var exception =
+        assertThrows(
+            OAuth2AuthorizationException.class,
+            () ->
+                oAuth2Service.authorizeWithRefreshToken(
+                    providerClient, new OAuth2RefreshToken("refreshToken", null), Set.of()));
+
+    assertEquals(OAuth2ErrorCodes.INVALID_GRANT, exception.getError().getErrorCode());
+  }
+
+  private void mockTokenResponse(int statusCode, String body) {
+    mockServer
+        .when(HttpRequest.request(TOKEN_PATH).withMethod("POST"))
+        .respond(
+            HttpResponse.response(body)
+                .withStatusCode(statusCode)
+                .withContentType(MediaType.APPLICATION_JSON));
+  }
+}
@@ -0,0 +1,109 @@
+package bio.terra.externalcreds.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bio.terra.externalcreds.TestUtils;
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import bio.terra.externalcreds.generated.model.Provider;
+import bio.terra.externalcreds.models.LinkedAccount;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+class PassportRefreshExecutorTest {
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final PassportRefreshExecutor passportRefreshExecutor =
+      new PassportRefreshExecutor(
+          ExternalCredsConfig.create()
+              .setPassportRefreshParallelism(4)
+              .setPassportRefreshConcurrency(16)
+              .setProviders(
+                  new EnumMap<>(
+                      Map.of(
+                          Provider.RAS,
+                          TestUtils.createRandomProvider().setMaxRefreshesPerSecond(1000.0)))),
+          meterRegistry);
+
+  @AfterEach
+  void tearDown() {
+    passportRefreshExecutor.shutdownExecutor();
+  }
+
+  @Test
+  void testAllLinkedAccountsRefreshed() {
+    var linkedAccounts =
+        IntStream.range(0, 20).mapToObj(i -> TestUtils.createRandomPassportLinkedAccount()).toList();
+    var refreshed = ConcurrentHashMap.<LinkedAccount>newKeySet();
+
+    var failureCount = passportRefreshExecutor.refreshAll(linkedAccounts, refreshed::add);
+
+    assertEquals(0, failureCount);
+    assertEquals(Set.copyOf(linkedAccounts), refreshed);
+    assertEquals(
+        20,
+        meterRegistry
+            .counter("externalcreds.passport.refresh", "provider", "ras", "outcome", "success")
+            .count());
+  }
+
+  @Test
+  void testFailuresDoNotStopRemainingRefreshes() {
+    var failingLinkedAccount = TestUtils.createRandomPassportLinkedAccount();
+    var linkedAccounts =
+        IntStream.range(0, 10).mapToObj(i -> TestUtils.createRandomPassportLinkedAccount()).toList();
+    var refreshed = ConcurrentHashMap.<LinkedAccount>newKeySet();
+
+    var failureCount =
+        passportRefreshExecutor.refreshAll(
+            Stream.concat(linkedAccounts.stream(), Stream.of(failingLinkedAccount)).toList(),
+            linkedAccount -> {
+              if (linkedAccount.equals(failingLinkedAccount)) {
+                throw new RuntimeException("refresh failed");
+              }
+              refreshed.add(linkedAccount);
+            });
+
+    assertEquals(1, failureCount);
+    assertEquals(Set.copyOf(linkedAccounts), refreshed);
+  }
+
+  @Test
+  void testReactiveRefreshesAreConcurrent() {
+    var linkedAccounts =
+        IntStream.range(0, 20).mapToObj(i -> TestUtils.createRandomPassportLinkedAccount()).toList();
+    var failingLinkedAccount = linkedAccounts.get(0);
+    var refreshed = ConcurrentHashMap.<LinkedAccount>newKeySet();
+
+    // 20 refreshes of 500ms each finish well within 10s only if they overlap
+    var start = System.nanoTime();
+    var failureCount =
+        passportRefreshExecutor.refreshAllReactive(
+            linkedAccounts,
+            linkedAccount -> {
+              if (linkedAccount.equals(failingLinkedAccount)) {
+                throw new RuntimeException("refresh failed");
+              }
+              return Mono.delay(Duration.ofMillis(500))
+                  .doOnNext(x -> refreshed.add(linkedAccount))
+                  .then();
+            });
+
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(10)) < 0);
+    assertEquals(1, failureCount);
+    assertEquals(Set.copyOf(linkedAccounts.subList(1, linkedAccounts.size())), refreshed);
+    assertEquals(
+        1,
+        meterRegistry
+            .counter("externalcreds.passport.refresh", "provider", "ras", "outcome", "failure")
+            .count());
+  }
+}
@@ -1,6 +1,7 @@
 package bio.terra.externalcreds.services;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.when;
 
@@ -17,6 +18,7 @@ import bio.terra.externalcreds.models.GA4GHVisa;
 import bio.terra.externalcreds.models.LinkedAccount;
 import bio.terra.externalcreds.models.LinkedAccountWithPassportAndVisas;
 import bio.terra.externalcreds.models.TokenTypeEnum;
+import bio.terra.externalcreds.models.ValidatePassportRequestInternal;
 import bio.terra.externalcreds.models.ValidatePassportResultInternal;
 import bio.terra.externalcreds.visaComparators.RASv1Dot1VisaComparator;
 import bio.terra.externalcreds.visaComparators.RASv1Dot1VisaComparator.DbGapPermission;
@@ -210,6 +212,80 @@ class PassportServiceTest extends BaseTest {
           () -> passportService.validatePassport(List.of(passport1.getJwt()), List.of(criterion)));
     }
 
+    @Test
+    void testValidatePassportsBatch() throws URISyntaxException {
+      when(externalCredsConfigMock.getAllowedJwtAlgorithms()).thenReturn(List.of("RS256", "ES256"));
+
+      var linkedAccount1 = TestUtils.createRandomLinkedAccount();
+      var linkedAccount2 = TestUtils.createRandomLinkedAccount();
+      mockProviderConfig(linkedAccount1, linkedAccount2);
+
+      var permission =
+          new DbGapPermission.Builder().phsId("phs000123").consentGroup("c33").role("bar").build();
+      var visas = List.of(createDbGapVisa(Set.of(permission)));
+      var passport1 = jwtSigningTestUtils.createTestPassport(visas);
+      var passport2 = jwtSigningTestUtils.createTestPassport(visas);
+
+      linkedAccountService.upsertLinkedAccountWithPassportAndVisas(
+          new LinkedAccountWithPassportAndVisas.Builder()
+              .linkedAccount(linkedAccount1)
+              .passport(passport1)
+              .visas(visas)
+              .build());
+      linkedAccountService.upsertLinkedAccountWithPassportAndVisas(
+          new LinkedAccountWithPassportAndVisas.Builder()
+              .linkedAccount(linkedAccount2)
+              .passport(passport2)
+              .visas(visas)
+              .build());
+
+      var criterion =
+          new RASv1Dot1VisaCriterionInternal.Builder()
+              .phsId(permission.getPhsId())
+              .consentCode(permission.getConsentGroup())
+              .issuer(jwtSigningTestUtils.getIssuer())
+              .build();
+      var notMatchingCriterion = criterion.withPhsId("phsDIFFERENT");
+
+      var results =
+          passportService.validatePassports(
+              List.of(
+                  new ValidatePassportRequestInternal.Builder()
+                      .addPassports(passport1.getJwt())
+                      .addCriteria(notMatchingCriterion, criterion)
+                      .build(),
+                  new ValidatePassportRequestInternal.Builder()
+                      .addPassports(passport2.getJwt())
+                      .addCriteria(notMatchingCriterion)
+                      .build(),
+                  new ValidatePassportRequestInternal.Builder()
+                      .addPassports("garbage")
+                      .addCriteria(criterion)
+                      .build(),
+                  new ValidatePassportRequestInternal.Builder()
+                      .addPassports(passport1.getJwt(), passport2.getJwt())
+                      .addCriteria(criterion)
+                      .build()));
+
+      assertEquals(4, results.size());
+      assertEquals(
+          new ValidatePassportResultInternal.Builder()
+              .valid(true)
+              .matchedCriterion(criterion)
+              .auditInfo(
+                  expectedAuditInfo(linkedAccount1, passport1, Collections.emptyMap(), false))
+              .build(),
+          results.get(0));
+      assertEquals(
+          new ValidatePassportResultInternal.Builder()
+              .valid(false)
+              .auditInfo(expectedAuditInfo(linkedAccount2, false))
+              .build(),
+          results.get(1));
+      assertFalse(results.get(2).getValid());
+      assertFalse(results.get(3).getValid());
+    }
+
     /**
      * Parameters used to vary how runValidPassportTest works. Default values represent the golden
      * path.
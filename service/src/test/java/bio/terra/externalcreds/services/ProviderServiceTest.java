@@ -70,6 +70,7 @@ import org.springframework.security.oauth2.core.OAuth2Error;
 import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
 import org.springframework.security.oauth2.core.OAuth2RefreshToken;
 import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
+import reactor.core.publisher.Mono;
 
 public class ProviderServiceTest extends BaseTest {
 
@@ -375,6 +376,7 @@ public class ProviderServiceTest extends BaseTest {
     @MockBean private ExternalCredsConfig externalCredsConfigMock;
     @MockBean private ProviderOAuthClientCache providerOAuthClientCacheMock;
     @MockBean private OAuth2Service oAuth2ServiceMock;
+    @MockBean private ReactiveOAuth2Service reactiveOAuth2ServiceMock;
     @MockBean private JwtUtils jwtUtilsMock;
 
     @Test
@@ -638,6 +640,29 @@ public class ProviderServiceTest extends BaseTest {
           () -> passportProviderService.authAndRefreshPassport(linkedAccount));
     }
 
+    @Test
+    void testReactiveRecoverableOAuth2Exception() {
+      var linkedAccount =
+          TestUtils.createRandomLinkedAccount()
+              .withExpires(
+                  new Timestamp(Instant.now().plus(Duration.ofMinutes(60)).toEpochMilli()));
+      var clientRegistration = createClientRegistration(linkedAccount.getProvider());
+      when(providerOAuthClientCacheMock.getProviderClient(linkedAccount.getProvider()))
+          .thenReturn(clientRegistration);
+      when(reactiveOAuth2ServiceMock.authorizeWithRefreshToken(
+              eq(clientRegistration),
+              eq(new OAuth2RefreshToken(linkedAccount.getRefreshToken(), null)),
+              any(Set.class)))
+          .thenReturn(
+              Mono.error(
+                  new OAuth2AuthorizationException(
+                      new OAuth2Error(OAuth2ErrorCodes.SERVER_ERROR))));
+
+      // the failure is signalled like authAndRefreshPassport throws it, so it is retried later
+      var refresh = passportProviderService.authAndRefreshPassportReactive(linkedAccount);
+      assertThrows(ExternalCredsException.class, refresh::block);
+    }
+
     private void mockProviderConfigs(Provider provider) {
       when(externalCredsConfigMock.getProviderProperties(provider))
           .thenReturn(TestUtils.createRandomProvider());
@@ -683,6 +708,34 @@ public class ProviderServiceTest extends BaseTest {
       verify(providerServiceSpy).authAndRefreshPassport(any());
       verify(providerServiceSpy).authAndRefreshPassport(savedExpiringLinkedAccount);
     }
+
+    @Test
+    void testOnlyExpiringPassportsAreRefreshedReactively() {
+      var savedExpiringLinkedAccount =
+          linkedAccountDAO.upsertLinkedAccount(TestUtils.createRandomLinkedAccount());
+      var savedNonExpiringLinkedAccount =
+          linkedAccountDAO.upsertLinkedAccount(TestUtils.createRandomLinkedAccount());
+      passportDAO.insertPassport(
+          TestUtils.createRandomPassport()
+              .withExpires(new Timestamp(Instant.now().toEpochMilli()))
+              .withLinkedAccountId(savedExpiringLinkedAccount.getId()));
+      passportDAO.insertPassport(
+          TestUtils.createRandomPassport()
+              .withExpires(new Timestamp(Instant.now().plus(Duration.ofMinutes(60)).toEpochMilli()))
+              .withLinkedAccountId(savedNonExpiringLinkedAccount.getId()));
+
+      when(externalCredsConfigMock.getVisaAndPassportRefreshDuration())
+          .thenReturn(Duration.ofMinutes(30));
+      when(externalCredsConfigMock.getReactivePassportRefreshEnabled()).thenReturn(true);
+
+      // refreshes run off the test's thread, outside of its transaction, so they are stubbed
+      var providerServiceSpy = Mockito.spy(passportProviderService);
+      doReturn(Mono.empty()).when(providerServiceSpy).authAndRefreshPassportReactive(any());
+      providerServiceSpy.refreshExpiringPassports();
+      verify(providerServiceSpy).authAndRefreshPassportReactive(any());
+      verify(providerServiceSpy).authAndRefreshPassportReactive(savedExpiringLinkedAccount);
+      verify(providerServiceSpy, Mockito.never()).authAndRefreshPassport(any());
+    }
   }
 
   @Nested
@@ -707,10 +760,13 @@ public class ProviderServiceTest extends BaseTest {
               visaVerificationDetails, HttpStatus.OK, "Valid")) {
 
         var responseBody =
-            passportProviderService.validateVisaWithProvider(visaVerificationDetails);
+            passportProviderService.validateVisaWithProvider(visaVerificationDetails).block();
         assertEquals(true, responseBody);
 
-        // verify that visa last validated has been updated
+        // verify that validating access token visas updates visa last validated
+        when(externalCredsConfigMock.getTokenValidationDuration())
+            .thenReturn(Duration.ofMinutes(50));
+        assertEquals(1, passportProviderService.validateAccessTokenVisas());
         var updatedVisas =
             visaDAO.listVisas(
                 savedLinkedAccountWithPassportAndVisa.getLinkedAccount().getUserId(),
@@ -739,7 +795,7 @@ public class ProviderServiceTest extends BaseTest {
               visaVerificationDetails, HttpStatus.BAD_REQUEST, "Invalid Passport")) {
 
         var responseBody =
-            passportProviderService.validateVisaWithProvider(visaVerificationDetails);
+            passportProviderService.validateVisaWithProvider(visaVerificationDetails).block();
         assertEquals(false, responseBody);
 
         // verify that visa last validated has NOT been updated
@@ -763,7 +819,7 @@ public class ProviderServiceTest extends BaseTest {
 
       assertThrows(
           NotFoundException.class,
-          () -> passportProviderService.validateVisaWithProvider(visaVerificationDetails));
+          () -> passportProviderService.validateVisaWithProvider(visaVerificationDetails).block());
     }
 
     @Test
@@ -776,7 +832,26 @@ public class ProviderServiceTest extends BaseTest {
 
       assertThrows(
           NotFoundException.class,
-          () -> passportProviderService.validateVisaWithProvider(visaVerificationDetails));
+          () -> passportProviderService.validateVisaWithProvider(visaVerificationDetails).block());
+    }
+
+    @Test
+    void testNoValidationEndpointLeavesVisaToNextRun() {
+      var savedLinkedAccountWithPassportAndVisa =
+          createLinkedAccountWithOldVisa(linkedAccountService);
+      when(externalCredsConfigMock.getProviderProperties(any()))
+          .thenReturn(TestUtils.createRandomProvider());
+      when(externalCredsConfigMock.getTokenValidationDuration())
+          .thenReturn(Duration.ofMinutes(50));
+
+      assertEquals(1, passportProviderService.validateAccessTokenVisas());
+      var unchangedVisas =
+          visaDAO.listVisas(
+              savedLinkedAccountWithPassportAndVisa.getLinkedAccount().getUserId(),
+              savedLinkedAccountWithPassportAndVisa.getLinkedAccount().getProvider());
+      assertEquals(
+          savedLinkedAccountWithPassportAndVisa.getVisas().get(0).getLastValidated().get(),
+          unchangedVisas.get(0).getLastValidated().get());
     }
 
     private ClientAndServer mockValidationEndpointConfigsAndResponse(
@@ -824,7 +899,9 @@ public class ProviderServiceTest extends BaseTest {
 
       var expectedVisaDetails =
           getExpectedVisaVerificationDetails(savedLinkedAccountWithPassportAndVisa);
-      doReturn(true).when(providerServiceSpy).validateVisaWithProvider(expectedVisaDetails);
+      doReturn(Mono.just(true))
+          .when(providerServiceSpy)
+          .validateVisaWithProvider(expectedVisaDetails);
 
       // check that validatePassportWithProvider is called once and no exceptions are thrown
       providerServiceSpy.validateAccessTokenVisas();
@@ -841,7 +918,9 @@ public class ProviderServiceTest extends BaseTest {
       // mock the behavior of helper functions which already have their own tests
       var expectedVisaDetails =
           getExpectedVisaVerificationDetails(savedLinkedAccountWithPassportAndVisa);
-      doReturn(false).when(providerServiceSpy).validateVisaWithProvider(expectedVisaDetails);
+      doReturn(Mono.just(false))
+          .when(providerServiceSpy)
+          .validateVisaWithProvider(expectedVisaDetails);
       doNothing()
           .when(providerServiceSpy)
           .authAndRefreshPassport(savedLinkedAccountWithPassportAndVisa.getLinkedAccount());
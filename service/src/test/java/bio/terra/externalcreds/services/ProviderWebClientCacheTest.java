@@ -0,0 +1,68 @@
+package bio.terra.externalcreds.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import bio.terra.externalcreds.TestUtils;
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import bio.terra.externalcreds.config.ProviderHttpClientConfiguration;
+import bio.terra.externalcreds.generated.model.Provider;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+class ProviderWebClientCacheTest {
+  private final ProviderWebClientCache providerWebClientCache =
+      new ProviderWebClientCache(
+          ExternalCredsConfig.create()
+              .setProviders(
+                  new EnumMap<>(
+                      Map.of(
+                          Provider.FENCE,
+                          TestUtils.createRandomProvider()
+                              .setHttpClient(
+                                  ProviderHttpClientConfiguration.create()
+                                      .setMaxConnections(2)
+                                      .setResponseTimeout(Duration.ofSeconds(5))),
+                          Provider.ANVIL,
+                          TestUtils.createRandomProvider()))));
+
+  @AfterEach
+  void tearDown() {
+    providerWebClientCache.disposeConnectionProviders();
+  }
+
+  @Test
+  void testOneWebClientPerProvider() {
+    var fenceClient = providerWebClientCache.getWebClient(Provider.FENCE);
+    assertSame(fenceClient, providerWebClientCache.getWebClient(Provider.FENCE));
+    assertNotSame(fenceClient, providerWebClientCache.getWebClient(Provider.ANVIL));
+  }
+
+  @Test
+  void testWebClientCallsAbsoluteUrls() {
+    try (var mockServer = ClientAndServer.startClientAndServer()) {
+      mockServer
+          .when(HttpRequest.request("/credentials").withMethod("GET"))
+          .respond(HttpResponse.response().withStatusCode(200).withBody("ok"));
+
+      var webClient = providerWebClientCache.getWebClient(Provider.FENCE);
+      for (var i = 0; i < 3; i++) {
+        assertEquals(
+            "ok",
+            webClient
+                .get()
+                .uri("http://localhost:" + mockServer.getPort() + "/credentials")
+                .retrieve()
+                .bodyToMono(String.class)
+                .block(Duration.ofSeconds(10)));
+      }
+    }
+  }
+}
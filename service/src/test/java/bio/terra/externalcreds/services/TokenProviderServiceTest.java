@@ -1,8 +1,12 @@
 package bio.terra.externalcreds.services;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -14,8 +18,10 @@ import bio.terra.externalcreds.auditLogging.AuditLogEvent;
 import bio.terra.externalcreds.auditLogging.AuditLogEvent.Builder;
 import bio.terra.externalcreds.auditLogging.AuditLogEventType;
 import bio.terra.externalcreds.auditLogging.AuditLogger;
+import bio.terra.externalcreds.config.ExternalCredsConfig;
 import bio.terra.externalcreds.generated.model.Provider;
 import bio.terra.externalcreds.models.LinkedAccount;
+import bio.terra.externalcreds.models.LinkedAccountWithAccessTokenCacheEntry;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.Optional;
@@ -25,6 +31,7 @@ import java.util.UUID;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.security.oauth2.core.*;
 
 public class TokenProviderServiceTest extends BaseTest {
@@ -34,6 +41,7 @@ public class TokenProviderServiceTest extends BaseTest {
   @MockBean private LinkedAccountService linkedAccountService;
   @MockBean private ProviderTokenClientCache providerTokenClientCacheMock;
   @MockBean private OAuth2Service oAuth2ServiceMock;
+  @SpyBean private ExternalCredsConfig externalCredsConfig;
 
   private final Provider provider = Provider.GITHUB;
   private final String userId = UUID.randomUUID().toString();
@@ -86,7 +94,8 @@ public class TokenProviderServiceTest extends BaseTest {
             .externalUserId(Optional.empty())
             .clientIP(clientIP);
 
-    when(linkedAccountService.getLinkedAccount(userId, provider)).thenReturn(Optional.empty());
+    when(linkedAccountService.getLinkedAccountWithAccessTokenCacheEntry(userId, provider))
+        .thenReturn(Optional.empty());
 
     assertThrows(
         NotFoundException.class,
@@ -109,8 +118,12 @@ public class TokenProviderServiceTest extends BaseTest {
     var expiredLinkedAccount =
         TestUtils.createRandomLinkedAccount(provider)
             .withExpires(Timestamp.from(Instant.now().minusSeconds(60)));
-    when(linkedAccountService.getLinkedAccount(userId, provider))
-        .thenReturn(Optional.of(expiredLinkedAccount));
+    when(linkedAccountService.getLinkedAccountWithAccessTokenCacheEntry(userId, provider))
+        .thenReturn(
+            Optional.of(
+                new LinkedAccountWithAccessTokenCacheEntry.Builder()
+                    .linkedAccount(expiredLinkedAccount)
+                    .build()));
 
     assertThrows(
         ForbiddenException.class,
@@ -122,8 +135,13 @@ public class TokenProviderServiceTest extends BaseTest {
     var linkedAccount = TestUtils.createRandomLinkedAccount(provider);
     var clientRegistration = TestUtils.createClientRegistration(linkedAccount.getProvider());
 
-    when(linkedAccountService.getLinkedAccount(linkedAccount.getUserId(), provider))
-        .thenReturn(Optional.of(linkedAccount));
+    when(linkedAccountService.getLinkedAccountWithAccessTokenCacheEntry(
+            linkedAccount.getUserId(), provider))
+        .thenReturn(
+            Optional.of(
+                new LinkedAccountWithAccessTokenCacheEntry.Builder()
+                    .linkedAccount(linkedAccount)
+                    .build()));
     when(providerTokenClientCacheMock.getProviderClient(linkedAccount.getProvider()))
         .thenReturn(clientRegistration);
     when(oAuth2ServiceMock.authorizeWithRefreshToken(
@@ -139,4 +157,14 @@ public class TokenProviderServiceTest extends BaseTest {
             tokenProviderService.getProviderAccessToken(
                 linkedAccount.getUserId(), provider, auditLogEventBuilder));
   }
+
+  @Test
+  void testAccessTokenPreRefreshOffWithoutPositiveMaxPerRun() {
+    doReturn(0, -1).when(externalCredsConfig).getAccessTokenPreRefreshMaxPerRun();
+
+    assertEquals(0, tokenProviderService.refreshExpiringAccessTokens());
+    assertEquals(0, tokenProviderService.refreshExpiringAccessTokens());
+    verify(linkedAccountService, never())
+        .getLinkedAccountsWithExpiringReadAccessTokens(any(), any(), anyInt(), anyInt());
+  }
 }
@@ -0,0 +1,87 @@
+package bio.terra.externalcreds.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+class VerifiedJwtCacheTest {
+
+  @Test
+  void testDecodesOnlyOnce() {
+    var cache = new VerifiedJwtCache();
+    var decodeCount = new AtomicInteger();
+    var jwt = createJwt(Instant.now().plus(1, ChronoUnit.HOURS));
+
+    var first =
+        cache.get(
+            jwt.getTokenValue(),
+            s -> {
+              decodeCount.incrementAndGet();
+              return jwt;
+            });
+    var second =
+        cache.get(
+            jwt.getTokenValue(),
+            s -> {
+              decodeCount.incrementAndGet();
+              return jwt;
+            });
+
+    assertSame(first, second);
+    assertEquals(1, decodeCount.get());
+  }
+
+  @Test
+  void testExpiredJwtNotCached() {
+    var cache = new VerifiedJwtCache();
+    var decodeCount = new AtomicInteger();
+    var jwt = createJwt(Instant.now().minus(1, ChronoUnit.SECONDS));
+
+    cache.get(
+        jwt.getTokenValue(),
+        s -> {
+          decodeCount.incrementAndGet();
+          return jwt;
+        });
+    cache.get(
+        jwt.getTokenValue(),
+        s -> {
+          decodeCount.incrementAndGet();
+          return jwt;
+        });
+
+    assertEquals(2, decodeCount.get());
+  }
+
+  @Test
+  void testDecodeFailureNotCached() {
+    var cache = new VerifiedJwtCache();
+    var jwt = createJwt(Instant.now().plus(1, ChronoUnit.HOURS));
+
+    assertThrows(
+        InvalidJwtException.class,
+        () ->
+            cache.get(
+                jwt.getTokenValue(),
+                s -> {
+                  throw new InvalidJwtException("bad jwt");
+                }));
+    assertSame(jwt, cache.get(jwt.getTokenValue(), s -> jwt));
+  }
+
+  private Jwt createJwt(Instant expiresAt) {
+    return Jwt.withTokenValue(UUID.randomUUID().toString())
+        .header("alg", "RS256")
+        .claim("iss", "http://issuer")
+        .issuedAt(expiresAt.minus(1, ChronoUnit.HOURS))
+        .expiresAt(expiresAt)
+        .build();
+  }
+}
@@ -0,0 +1,92 @@
+package bio.terra.externalcreds.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bio.terra.externalcreds.config.ExternalCredsConfig;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class VisaVerificationExecutorTest {
+  private final VisaVerificationExecutor visaVerificationExecutor =
+      new VisaVerificationExecutor(ExternalCredsConfig.create().setVisaVerificationParallelism(4));
+
+  @AfterEach
+  void tearDown() {
+    visaVerificationExecutor.shutdownPool();
+  }
+
+  @Test
+  void testResultsPreserveOrder() {
+    var visaJwtStrings = IntStream.range(0, 50).mapToObj(Integer::toString).toList();
+
+    var results = visaVerificationExecutor.verifyAll(visaJwtStrings, Integer::parseInt);
+
+    assertEquals(IntStream.range(0, 50).boxed().toList(), results);
+  }
+
+  @Test
+  void testInvalidVisaFails() {
+    var visaJwtStrings = List.of("valid", "valid", "invalid", "valid");
+
+    var exception =
+        assertThrows(
+            InvalidJwtException.class,
+            () ->
+                visaVerificationExecutor.verifyAll(
+                    visaJwtStrings,
+                    visaJwtString -> {
+                      if (visaJwtString.equals("invalid")) {
+                        throw new InvalidJwtException("invalid visa");
+                      }
+                      return visaJwtString;
+                    }));
+    assertEquals("invalid visa", exception.getMessage());
+  }
+
+  @Test
+  void testVerificationsAfterFailureAreSkipped() {
+    var visaJwtStrings =
+        Stream.concat(Stream.of("invalid"), Stream.generate(() -> "valid").limit(199)).toList();
+    var failureThrown = new CountDownLatch(1);
+    var verifiedCount = new AtomicInteger();
+
+    assertThrows(
+        InvalidJwtException.class,
+        () ->
+            visaVerificationExecutor.verifyAll(
+                visaJwtStrings,
+                visaJwtString -> {
+                  if (visaJwtString.equals("invalid")) {
+                    failureThrown.countDown();
+                    throw new InvalidJwtException("invalid visa");
+                  }
+                  // verifications running alongside the invalid visa finish after it fails
+                  await(failureThrown);
+                  return verifiedCount.incrementAndGet();
+                }));
+    visaVerificationExecutor.shutdownPool();
+
+    assertTrue(verifiedCount.get() < 199, "verifications queued after the failure should not run");
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  void testEmptyVisas() {
+    assertEquals(List.of(), visaVerificationExecutor.verifyAll(List.of(), s -> s));
+  }
+}
@@ -1,5 +1,6 @@
 package bio.terra.externalcreds.visaComparators;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -14,6 +15,7 @@ import com.nimbusds.jwt.JWTClaimsSet;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.Map;
+import java.util.Set;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -110,6 +112,28 @@ class RASv1Dot1VisaComparatorTest extends BaseTest {
             createTestRasVisa(authorization, authorization), createTestRasVisa(authorization)));
   }
 
+  @Test
+  void testGetMatchedCriteria() {
+    var authorization1 = Map.of("phs_id", "phs000021", "consent_group", "c1", "role", "pi");
+    var authorization2 = Map.of("phs_id", "phs000022", "consent_group", "c2", "role", "pi");
+    var visa = createTestRasVisa(authorization1, authorization2);
+
+    var matchedCriteria = comparator.getMatchedCriteria(visa);
+
+    var criterion1 =
+        new RASv1Dot1VisaCriterionInternal.Builder()
+            .issuer(visa.getIssuer())
+            .phsId("phs000021")
+            .consentCode("c1")
+            .build();
+    var criterion2 = criterion1.withPhsId("phs000022").withConsentCode("c2");
+    assertEquals(Set.of(criterion1, criterion2), matchedCriteria);
+    assertTrue(comparator.matchesCriterion(visa, criterion1));
+    assertTrue(comparator.matchesCriterion(visa, criterion2));
+    assertFalse(matchedCriteria.contains(criterion1.withConsentCode("c2")));
+    assertFalse(matchedCriteria.contains(criterion1.withIssuer("https://other.issuer")));
+  }
+
   @SafeVarargs
   private ImmutableGA4GHVisa createTestRasVisa(Map<String, String>... dbgapPermissions) {
     return new GA4GHVisa.Builder()